@@ -1,8 +1,9 @@
 package net.rolandbrt.patchsync.pluginexample;
 
-import net.rolandbrt.patchsync.api.Event;
 import net.rolandbrt.patchsync.api.SyncPlugin;
-import net.rolandbrt.patchsync.event.DeployUpdateEvent;
+import net.rolandbrt.patchsync.event.ArtifactDeployedEvent;
+import net.rolandbrt.patchsync.event.DeployFailedEvent;
+import net.rolandbrt.patchsync.event.PreDeployEvent;
 import net.rolandbrt.patchsync.event.RollbackUpdateEvent;
 
 public class Main extends SyncPlugin {
@@ -14,21 +15,17 @@ public class Main extends SyncPlugin {
     @Override
     public void onLoad() {
         log("called onLoad()");
+        subscribe(PreDeployEvent.class, e -> log("Deploying " + e.getArtifacts().size() +
+                " artifacts, reason: " + e.getSnapshot().getReason()));
+        subscribe(ArtifactDeployedEvent.class, e -> log("Target " + e.getTarget() + " received " +
+                e.getArtifacts().size() + " artifacts"));
+        subscribe(DeployFailedEvent.class, e -> log("Deploy failed for targets " + e.getFailedTargets()));
+        subscribe(RollbackUpdateEvent.class, e -> log("Rolling back to snapshot " + e.getSnapshotId() +
+                " with " + e.getArtifacts().size() + " artifacts, reason: " + e.getReason()));
     }
 
     @Override
     public void onUnload() {
         log("called onUnload()");
     }
-
-    @Override
-    public void onEvent(Event event) {
-        if (event instanceof DeployUpdateEvent e) {
-            log("called onEvent() for DeployEvent with " + e.getArtifacts().size() +
-                    " artifacts and reason: " + e.getSnapshot().getReason());
-        } else if (event instanceof RollbackUpdateEvent e) {
-            log("called onEvent() for RollbackEvent id: " + e.getSnapshotId() + " with " +
-                    e.getArtifacts().size() + " artifacts and reason: " + e.getReason());
-        }
-    }
-}
+}
\ No newline at end of file
@@ -0,0 +1,15 @@
+package net.rolandbrt.patchsync.api;
+
+/**
+ * How events are delivered to a plugin.
+ */
+public enum Delivery {
+    /**
+     * The pipeline waits for the plugin to handle the event (up to the configured timeout) before it continues.
+     */
+    SYNC,
+    /**
+     * The event is handed to the plugin in the background, the pipeline does not wait for it.
+     */
+    ASYNC
+}
\ No newline at end of file
@@ -1,5 +1,7 @@
 package net.rolandbrt.patchsync.api;
 
+import java.util.List;
+
 public interface Plugin {
 
     void setLogger(PluginLogger logger);
@@ -10,7 +12,24 @@ public interface Plugin {
 
     void onUnload();
 
+    /**
+     * Receives every event, in addition to the {@link #getSubscriptions() subscriptions}.
+     */
     void onEvent(Event event);
 
+    /**
+     * Event types this plugin handles, read once when the plugin is loaded.
+     */
+    default List<Subscription<?>> getSubscriptions() {
+        return List.of();
+    }
+
+    /**
+     * Whether the pipeline waits for this plugin to handle events, defaults to {@link Delivery#SYNC}.
+     */
+    default Delivery getDelivery() {
+        return Delivery.SYNC;
+    }
+
     void log(String message);
 }
@@ -0,0 +1,25 @@
+package net.rolandbrt.patchsync.api;
+
+import lombok.Getter;
+
+import java.util.function.Consumer;
+
+/**
+ * Handler of a plugin for one event type, receiving that type and its subtypes.
+ *
+ * @param <T> Handled event type
+ */
+@Getter
+public class Subscription<T extends Event> {
+    private final Class<T> type;
+    private final Consumer<? super T> handler;
+
+    public Subscription(Class<T> type, Consumer<? super T> handler) {
+        this.type = type;
+        this.handler = handler;
+    }
+
+    public void handle(Event event) {
+        handler.accept(type.cast(event));
+    }
+}
\ No newline at end of file
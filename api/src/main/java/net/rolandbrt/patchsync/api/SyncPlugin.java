@@ -2,12 +2,41 @@ package net.rolandbrt.patchsync.api;
 
 import lombok.Setter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
 @Setter
 public abstract class SyncPlugin implements Plugin {
     private PluginLogger logger;
+    private final List<Subscription<?>> subscriptions = new ArrayList<>();
 
     @Override
     public final void log(String message) {
         logger.log(message);
     }
+
+    /**
+     * Handle events of a type (and its subtypes). Must be called from the constructor or {@link #onLoad()}.
+     *
+     * @param type    Event type
+     * @param handler Handler called for every matching event
+     */
+    protected final <T extends Event> void subscribe(Class<T> type, Consumer<? super T> handler) {
+        subscriptions.add(new Subscription<>(type, handler));
+    }
+
+    @Override
+    public final List<Subscription<?>> getSubscriptions() {
+        return Collections.unmodifiableList(subscriptions);
+    }
+
+    /**
+     * Does nothing by default, plugins only receive the events they {@link #subscribe(Class, Consumer) subscribed} to
+     * unless they override this.
+     */
+    @Override
+    public void onEvent(Event event) {
+    }
 }
\ No newline at end of file
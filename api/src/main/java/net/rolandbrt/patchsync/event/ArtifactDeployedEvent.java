@@ -0,0 +1,22 @@
+package net.rolandbrt.patchsync.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import net.rolandbrt.patchsync.api.Event;
+import net.rolandbrt.patchsync.data.Artifact;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Fired for every target as soon as its artifacts are in place, while other targets may still be deploying.
+ * Events of different targets may be delivered concurrently.
+ */
+@Getter
+@AllArgsConstructor
+public class ArtifactDeployedEvent implements Event {
+    private String target;
+    private Path targetPath;
+    private List<Artifact> artifacts;
+    private String reason;
+}
\ No newline at end of file
@@ -0,0 +1,19 @@
+package net.rolandbrt.patchsync.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import net.rolandbrt.patchsync.api.Event;
+import net.rolandbrt.patchsync.data.Artifact;
+
+import java.util.List;
+
+/**
+ * Fired instead of {@link PostDeployEvent} when at least one artifact could not be deployed.
+ */
+@Getter
+@AllArgsConstructor
+public class DeployFailedEvent implements Event {
+    private List<Artifact> failed;
+    private List<String> failedTargets;
+    private String reason;
+}
\ No newline at end of file
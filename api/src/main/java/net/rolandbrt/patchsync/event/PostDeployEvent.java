@@ -0,0 +1,20 @@
+package net.rolandbrt.patchsync.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import net.rolandbrt.patchsync.api.Event;
+import net.rolandbrt.patchsync.data.Artifact;
+
+import java.util.List;
+
+/**
+ * Fired once all targets received their artifacts.
+ */
+@Getter
+@AllArgsConstructor
+public class PostDeployEvent implements Event {
+    private List<Artifact> artifacts;
+    private List<String> targets;
+    private String reason;
+    private long durationMillis;
+}
\ No newline at end of file
@@ -0,0 +1,15 @@
+package net.rolandbrt.patchsync.event;
+
+import net.rolandbrt.patchsync.data.Artifact;
+import net.rolandbrt.patchsync.data.Snapshot;
+
+import java.util.List;
+
+/**
+ * Fired after the snapshot was taken and before any artifact is copied.
+ */
+public class PreDeployEvent extends DeployUpdateEvent {
+    public PreDeployEvent(List<Artifact> artifacts, Snapshot snapshot) {
+        super(artifacts, snapshot);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,34 @@
+plugins {
+    id("java")
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+group = "net.rolandbrt.patchsync"
+version = "1.0-SNAPSHOT"
+
+repositories {
+    mavenCentral()
+}
+
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(17)
+    }
+}
+
+dependencies {
+    jmh(project(":api"))
+    // The plain jar of :core is disabled, its shadow jar carries the classes and libraries (JGit, Jackson, logging)
+    jmh(project(path = ":core", configuration = "shadowRuntimeElements"))
+}
+
+jmh {
+    jmhVersion = "1.37"
+    // Narrow down with e.g. ./gradlew :benchmarks:jmh -Pjmh.includes=Snapshot
+    providers.gradleProperty("jmh.includes").orNull?.let { includes.add(it) }
+    warmupIterations = 2
+    iterations = 5
+    fork = 1
+    jvmArgsAppend.add("-Dlogback.configurationFile=logback-benchmark.xml")
+    resultFormat = "JSON"
+}
\ No newline at end of file
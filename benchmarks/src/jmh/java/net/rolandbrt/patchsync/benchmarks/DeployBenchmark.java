@@ -0,0 +1,89 @@
+package net.rolandbrt.patchsync.benchmarks;
+
+import net.rolandbrt.patchsync.configuration.TargetConfig;
+import net.rolandbrt.patchsync.data.Artifact;
+import net.rolandbrt.patchsync.deploy.DeployResult;
+import net.rolandbrt.patchsync.deploy.DeploymentManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing artifacts to their targets and copying them there.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DeployBenchmark {
+    @Param({"1", "4"})
+    public int targetCount;
+    @Param({"10", "100"})
+    public int artifactCount;
+    @Param({"64", "1024"})
+    public int artifactSizeKb;
+
+    private Path root;
+    private List<Artifact> artifacts;
+    private Map<String, TargetConfig> targets;
+    private DeploymentManager deploymentManager;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        root = Fixtures.tempDir("deploy");
+        artifacts = Fixtures.artifacts(Fixtures.writeJars(root.resolve("incoming"), artifactCount, artifactSizeKb, 1));
+        targets = Fixtures.targets(root.resolve("targets"), targetCount, artifactCount);
+        deploymentManager = new DeploymentManager(targets, root.resolve("deploy-index.json").toFile());
+        deploymentManager.deploy(artifacts);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        deploymentManager.close();
+        Fixtures.delete(root);
+    }
+
+    /**
+     * Routes every artifact and compares it to what its targets already hold, nothing has changed.
+     */
+    @Benchmark
+    public List<Artifact> filterChanged() {
+        return deploymentManager.filterChanged(artifacts);
+    }
+
+    /**
+     * Every artifact is already deployed, so this measures the index checks that skip them.
+     */
+    @Benchmark
+    public DeployResult deployUnchanged() {
+        return deploymentManager.deploy(artifacts);
+    }
+
+    /**
+     * Deploys with an empty index, so every artifact is staged, copied and committed to every target.
+     */
+    @State(Scope.Thread)
+    public static class EmptyIndex {
+        Path dir;
+        DeploymentManager deploymentManager;
+
+        @Setup(Level.Invocation)
+        public void setup(DeployBenchmark benchmark) throws Exception {
+            dir = Fixtures.tempDir("index");
+            deploymentManager = new DeploymentManager(benchmark.targets, dir.resolve("deploy-index.json").toFile());
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws Exception {
+            deploymentManager.close();
+            Fixtures.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public DeployResult deploy(EmptyIndex index) {
+        return index.deploymentManager.deploy(artifacts);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,143 @@
+package net.rolandbrt.patchsync.benchmarks;
+
+import net.rolandbrt.patchsync.configuration.SnapshotConfig;
+import net.rolandbrt.patchsync.configuration.TargetConfig;
+import net.rolandbrt.patchsync.data.Artifact;
+import net.rolandbrt.patchsync.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generated jars, targets and git repositories the benchmarks run against, all below temp directories.
+ */
+final class Fixtures {
+    static final String REPO = "bench";
+
+    private Fixtures() {
+    }
+
+    static Path tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory("patchsync-" + prefix);
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir != null) FileUtils.deleteRecursively(dir);
+    }
+
+    static String artifactName(int i) {
+        return "artifact-" + i;
+    }
+
+    /**
+     * Write jars holding random, incompressible class files, like most built jars.
+     * The same seed always gives the same contents.
+     *
+     * @param dir    Directory to write into
+     * @param count  Number of jars
+     * @param sizeKb Approximate size of every jar
+     * @param seed   Seed of the contents
+     * @return Written jars, artifact-0.jar to artifact-(count-1).jar
+     */
+    static List<Path> writeJars(Path dir, int count, int sizeKb, long seed) throws IOException {
+        Files.createDirectories(dir);
+        Random random = new Random(seed);
+        byte[] chunk = new byte[16 * 1024];
+        List<Path> jars = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path jar = dir.resolve(artifactName(i) + ".jar");
+            try (OutputStream out = Files.newOutputStream(jar);
+                 ZipOutputStream zip = new ZipOutputStream(out)) {
+                long remaining = sizeKb * 1024L;
+                for (int entry = 0; remaining > 0; entry++) {
+                    zip.putNextEntry(new ZipEntry("bench/Class" + entry + ".class"));
+                    random.nextBytes(chunk);
+                    int length = (int) Math.min(chunk.length, remaining);
+                    zip.write(chunk, 0, length);
+                    zip.closeEntry();
+                    remaining -= length;
+                }
+            }
+            jars.add(jar);
+        }
+        return jars;
+    }
+
+    static List<Artifact> artifacts(List<Path> jars) {
+        List<Artifact> artifacts = new ArrayList<>();
+        for (int i = 0; i < jars.size(); i++) {
+            artifacts.add(Artifact.builder()
+                    .name(artifactName(i))
+                    .file(jars.get(i).toFile())
+                    .repo(REPO)
+                    .branch("main")
+                    .version("bench")
+                    .build());
+        }
+        return artifacts;
+    }
+
+    /**
+     * Targets target-0 to target-(count-1) below a directory, each receiving every artifact.
+     */
+    static Map<String, TargetConfig> targets(Path dir, int count, int artifactCount) throws IOException {
+        List<String> routed = new ArrayList<>();
+        for (int i = 0; i < artifactCount; i++) {
+            routed.add(artifactName(i) + ":" + REPO);
+        }
+        Map<String, TargetConfig> targets = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            Path path = Files.createDirectories(dir.resolve("target-" + i));
+            TargetConfig target = new TargetConfig();
+            target.setPath(path.toString());
+            target.setArtifacts(routed);
+            targets.put("target-" + i, target);
+        }
+        return targets;
+    }
+
+    static SnapshotConfig snapshotConfig(String compression) {
+        SnapshotConfig config = new SnapshotConfig();
+        config.setKeepDays(365);
+        config.setMaxSnapshots(20);
+        config.setCompression(compression);
+        return config;
+    }
+
+    /**
+     * Create a bare repository holding the given jars and a repo-config.json listing them.
+     *
+     * @param dir  Directory of the bare repository
+     * @param jars Jars to commit below artifacts/
+     * @return file:// URL of the repository
+     */
+    static String bareRepo(Path dir, List<Path> jars) throws Exception {
+        Path work = tempDir("work");
+        try {
+            StringBuilder config = new StringBuilder("{\"artifacts\":[");
+            Path artifactsDir = Files.createDirectories(work.resolve("artifacts"));
+            for (int i = 0; i < jars.size(); i++) {
+                Files.copy(jars.get(i), artifactsDir.resolve(jars.get(i).getFileName()));
+                if (i > 0) config.append(',');
+                config.append("{\"name\":\"").append(artifactName(i))
+                        .append("\",\"path\":\"artifacts/").append(jars.get(i).getFileName()).append("\"}");
+            }
+            Files.writeString(work.resolve("repo-config.json"), config.append("]}"));
+            Git.init().setBare(true).setInitialBranch("main").setDirectory(dir.toFile()).call().close();
+            try (Git git = Git.init().setInitialBranch("main").setDirectory(work.toFile()).call()) {
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("Fixture").setAuthor("bench", "bench@localhost").setSign(false).call();
+                git.push().setRemote(dir.toUri().toString()).add("main").call();
+            }
+            return dir.toUri().toString();
+        } finally {
+            delete(work);
+        }
+    }
+}
\ No newline at end of file
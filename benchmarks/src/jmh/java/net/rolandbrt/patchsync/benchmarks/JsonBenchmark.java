@@ -0,0 +1,30 @@
+package net.rolandbrt.patchsync.benchmarks;
+
+import net.rolandbrt.patchsync.network.UpdateMessage;
+import net.rolandbrt.patchsync.util.JsonUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a webhook notification body, as the endpoint does for every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonBenchmark {
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        body = ("{\"repoName\":\"MainRepo\",\"commit\":\"9fceb02d0ae598e95dc970b74767f19372d61af8\","
+                + "\"actor\":\"octocat\",\"timestamp\":\"2024-06-01T12:00:00Z\",\"branch\":\"main\"}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public UpdateMessage decodeUpdateMessage() throws Exception {
+        return JsonUtils.fromJson(new String(body, StandardCharsets.UTF_8), UpdateMessage.class);
+    }
+}
\ No newline at end of file
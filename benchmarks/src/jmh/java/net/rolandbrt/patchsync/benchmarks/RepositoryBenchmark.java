@@ -0,0 +1,72 @@
+package net.rolandbrt.patchsync.benchmarks;
+
+import net.rolandbrt.patchsync.configuration.AppConfig;
+import net.rolandbrt.patchsync.configuration.ArtifactRepoConfig;
+import net.rolandbrt.patchsync.data.Artifact;
+import net.rolandbrt.patchsync.network.UpdateMessage;
+import net.rolandbrt.patchsync.repository.RepositoryManager;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the artifacts of a local bare repository, already cloned during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RepositoryBenchmark {
+    @Param({"10", "100", "1000"})
+    public int artifactCount;
+
+    private Path root;
+    private RepositoryManager repositoryManager;
+    private UpdateMessage message;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        root = Fixtures.tempDir("repository");
+        String url = Fixtures.bareRepo(root.resolve("remote.git"), Fixtures.writeJars(root.resolve("jars"), artifactCount, 1, 1));
+        ArtifactRepoConfig repoCfg = new ArtifactRepoConfig();
+        repoCfg.setRepo(url);
+        repoCfg.setBranch("main");
+        AppConfig config = new AppConfig();
+        config.setRepositories(Map.of(Fixtures.REPO, repoCfg));
+        config.setTargets(Map.of());
+        repositoryManager = new RepositoryManager(config, root.resolve("repos").toFile());
+        repositoryManager.checkRepo(Fixtures.REPO);
+
+        message = new UpdateMessage();
+        message.setRepoName(Fixtures.REPO);
+        try (Git git = Git.open(root.resolve("repos").resolve(Fixtures.REPO).toFile())) {
+            message.setCommit(git.getRepository().resolve(Constants.HEAD).getName());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        repositoryManager.close();
+        Fixtures.delete(root);
+    }
+
+    /**
+     * The notified commit is already checked out, so this parses repo-config.json without touching the remote.
+     */
+    @Benchmark
+    public List<Artifact> loadArtifacts() throws Exception {
+        return repositoryManager.fetchArtifactsFromMessage(message);
+    }
+
+    /**
+     * Pulls the unchanged repository and loads its artifacts.
+     */
+    @Benchmark
+    public List<Artifact> checkRepo() throws Exception {
+        return repositoryManager.checkRepo(Fixtures.REPO).artifacts();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,118 @@
+package net.rolandbrt.patchsync.benchmarks;
+
+import net.rolandbrt.patchsync.data.Artifact;
+import net.rolandbrt.patchsync.data.Snapshot;
+import net.rolandbrt.patchsync.deploy.RestoredFile;
+import net.rolandbrt.patchsync.snapshot.SnapshotManager;
+import net.rolandbrt.patchsync.util.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Snapshotting the target files a deploy overwrites, and restoring them.
+ * Every target holds an older build of each artifact, so every target file is backed up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SnapshotBenchmark {
+    @Param({"10", "100"})
+    public int artifactCount;
+    @Param({"64", "1024"})
+    public int artifactSizeKb;
+    @Param({"none", "deflate"})
+    public String compression;
+
+    private static final int TARGETS = 2;
+
+    private Path root;
+    private List<Artifact> artifacts;
+    private Function<Artifact, List<Path>> targetPaths;
+    private SnapshotManager snapshotManager;
+    private String snapshotId;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        root = Fixtures.tempDir("snapshot");
+        artifacts = Fixtures.artifacts(Fixtures.writeJars(root.resolve("incoming"), artifactCount, artifactSizeKb, 1));
+        List<Path> deployed = Fixtures.writeJars(root.resolve("target-0"), artifactCount, artifactSizeKb, 2);
+        for (int i = 1; i < TARGETS; i++) {
+            Path target = Files.createDirectories(root.resolve("target-" + i));
+            for (Path jar : deployed) {
+                Files.copy(jar, target.resolve(jar.getFileName()));
+            }
+        }
+        targetPaths = artifact -> {
+            String fileName = artifact.getFile().getName();
+            return IntStream.range(0, TARGETS)
+                    .mapToObj(i -> root.resolve("target-" + i).resolve(fileName))
+                    .toList();
+        };
+        snapshotManager = new SnapshotManager(Fixtures.snapshotConfig(compression), root.resolve("snapshots").toFile());
+        snapshotId = snapshotManager.createSnapshot(artifacts, "benchmark", targetPaths).getId();
+        snapshotManager.pin(snapshotId, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        snapshotManager.close();
+        Fixtures.delete(root);
+    }
+
+    /**
+     * Every object is already stored, so this measures hashing the targets and writing the manifest and index.
+     */
+    @Benchmark
+    public Snapshot createSnapshotDeduplicated() {
+        return snapshotManager.createSnapshot(artifacts, "benchmark", targetPaths);
+    }
+
+    /**
+     * Stages every object of the snapshot next to its target files and discards the staged files again,
+     * which is the I/O of a rollback without the commit.
+     */
+    @Benchmark
+    public Map<Path, RestoredFile> restoreTargetFiles() throws IOException {
+        Map<Path, RestoredFile> files = snapshotManager.restoreTargetFiles(snapshotId, entry -> true);
+        for (Map.Entry<Path, RestoredFile> file : files.entrySet()) {
+            Path staged = FileUtils.createStagingFile(file.getKey());
+            file.getValue().getContent().stage(staged);
+            Files.delete(staged);
+        }
+        return files;
+    }
+
+    /**
+     * Snapshots into an empty store, so every object is written (and compressed).
+     */
+    @State(Scope.Thread)
+    public static class EmptyStore {
+        Path dir;
+        SnapshotManager snapshotManager;
+
+        @Setup(Level.Invocation)
+        public void setup(SnapshotBenchmark benchmark) throws Exception {
+            dir = Fixtures.tempDir("store");
+            snapshotManager = new SnapshotManager(Fixtures.snapshotConfig(benchmark.compression), dir.toFile());
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws Exception {
+            snapshotManager.close();
+            Fixtures.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public Snapshot createSnapshot(EmptyStore store) {
+        return store.snapshotManager.createSnapshot(artifacts, "benchmark", targetPaths);
+    }
+}
\ No newline at end of file
@@ -34,6 +34,7 @@ dependencies {
 
     testImplementation(platform("org.junit:junit-bom:5.9.1"))
     testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 tasks.shadowJar {
@@ -58,6 +59,9 @@ tasks.build {
 
 tasks.test {
     useJUnitPlatform()
+    // Managers keep their state (inbox journal, snapshots, repos) relative to the working directory
+    workingDir = layout.buildDirectory.dir("test-work").get().asFile
+    doFirst { workingDir.mkdirs() }
 }
 
 tasks.jar {
@@ -8,7 +8,10 @@ import net.rolandbrt.patchsync.plugin.PluginManager;
 import net.rolandbrt.patchsync.command.*;
 import net.rolandbrt.patchsync.configuration.ConfigLoader;
 import net.rolandbrt.patchsync.core.SyncManager;
+import net.rolandbrt.patchsync.util.DirectoryWatcher;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Scanner;
 
 @Slf4j
@@ -30,6 +33,7 @@ public class App {
     private final PluginManager pluginManager = new PluginManager();
     private final SyncManager syncManager = new SyncManager();
 
+    private DirectoryWatcher configWatcher;
     @Setter
     private boolean running;
 
@@ -50,15 +54,46 @@ public class App {
         registry.register("help", new HelpCommand());
         registry.register("check", new CheckUpdatesCommand());
         registry.register("rollback", new RollbackCommand());
+        registry.register("queue", new QueueCommand());
+        registry.register("stats", new StatsCommand());
+        registry.register("pin", new PinCommand(true));
+        registry.register("unpin", new PinCommand(false));
+        registry.register("plugins", new PluginsCommand());
         registry.register("exit", new ExitCommand());
 
-        pluginManager.load();
+        pluginManager.load(config.getPlugins());
+
+        if (config.getSync().isWatchConfig()) {
+            try {
+                // Editors often save by replacing the file, so the directory is watched instead of the file
+                Path file = ConfigLoader.path();
+                configWatcher = new DirectoryWatcher(file.getParent(), file.getFileName()::equals,
+                        config.getSync().getConfigReloadDelayMillis(), "config-watcher", this::reloadConfig);
+            } catch (IOException e) {
+                log.warn("Failed to watch config, changes need a restart", e);
+            }
+        }
 
         log.info("Sync started. Type 'help' for commands.");
         running = true;
         loop();
     }
 
+    /**
+     * Apply a changed config.json. A file that fails to parse is ignored,
+     * the previous config stays in place until the next valid save.
+     */
+    private void reloadConfig() {
+        AppConfig config;
+        try {
+            config = ConfigLoader.load();
+        } catch (Exception e) {
+            log.error("Failed to reload {}, keeping the current config", ConfigLoader.path(), e);
+            return;
+        }
+        syncManager.applyConfig(config);
+    }
+
     public void loop() {
         Scanner scanner = new Scanner(System.in);
         while (running) {
@@ -72,6 +107,9 @@ public class App {
     }
 
     public void stop() {
+        if (configWatcher != null) {
+            configWatcher.close();
+        }
         pluginManager.unloadAll();
         registry.unregisterAll();
         syncManager.close();
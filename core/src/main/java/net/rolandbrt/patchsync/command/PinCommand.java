@@ -0,0 +1,24 @@
+package net.rolandbrt.patchsync.command;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.App;
+
+@Slf4j
+@AllArgsConstructor
+public class PinCommand implements Command {
+    private final boolean pin;
+
+    @Override
+    public void execute(String[] args) {
+        if (args.length != 1) {
+            log.info("Usage: {} <snapshotId>", pin ? "pin" : "unpin");
+            return;
+        }
+        if (!App.getInstance().getSyncManager().getSnapshotManager().pin(args[0], pin)) {
+            log.warn("Snapshot {} not found", args[0]);
+            return;
+        }
+        log.info("Snapshot {} {}", args[0], pin ? "pinned, it will not be deleted by retention" : "unpinned");
+    }
+}
\ No newline at end of file
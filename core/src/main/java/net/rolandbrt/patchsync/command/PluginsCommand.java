@@ -0,0 +1,40 @@
+package net.rolandbrt.patchsync.command;
+
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.App;
+import net.rolandbrt.patchsync.plugin.LoadedPlugin;
+import net.rolandbrt.patchsync.plugin.PluginManager;
+
+import java.util.List;
+
+@Slf4j
+public class PluginsCommand implements Command {
+
+    @Override
+    public void execute(String[] args) {
+        PluginManager pluginManager = App.getInstance().getPluginManager();
+        if (args.length >= 1 && args[0].equalsIgnoreCase("reload")) {
+            if (args.length == 1) {
+                pluginManager.reload();
+            } else if (!pluginManager.reload(args[1])) {
+                log.warn("No plugin named {}", args[1]);
+            }
+            return;
+        }
+        if (args.length == 0 || args[0].equalsIgnoreCase("list")) {
+            List<LoadedPlugin> plugins = pluginManager.getLoadedPlugins();
+            if (plugins.isEmpty()) {
+                log.info("No plugins loaded.");
+                return;
+            }
+            log.info("Loaded plugins:");
+            for (LoadedPlugin plugin : plugins) {
+                log.info("- {} v{} ({}) {}", plugin.getMetadata().getName(), plugin.getMetadata().getVersion(),
+                        plugin.getJar().getFileName(),
+                        plugin.isActive() ? "loaded in " + plugin.getLoadMillis() + "ms" : "waiting for " + plugin.getMetadata().getActivateOn());
+            }
+            return;
+        }
+        log.info("Usage: plugins [list] | plugins reload [name]");
+    }
+}
\ No newline at end of file
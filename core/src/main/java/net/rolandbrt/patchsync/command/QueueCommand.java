@@ -0,0 +1,20 @@
+package net.rolandbrt.patchsync.command;
+
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.App;
+
+import java.util.Map;
+
+@Slf4j
+public class QueueCommand implements Command {
+
+    @Override
+    public void execute(String[] args) {
+        Map<String, Integer> depths = App.getInstance().getSyncManager().getQueueDepths();
+        if (depths.isEmpty()) {
+            log.info("No repository lanes yet.");
+            return;
+        }
+        log.info("Queued updates per repository: {}", depths);
+    }
+}
\ No newline at end of file
@@ -2,18 +2,13 @@ package net.rolandbrt.patchsync.command;
 
 import lombok.extern.slf4j.Slf4j;
 import net.rolandbrt.patchsync.App;
+import net.rolandbrt.patchsync.network.RollbackMessage;
+import net.rolandbrt.patchsync.snapshot.SnapshotManager;
+import net.rolandbrt.patchsync.snapshot.SnapshotManifest;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
-import java.util.stream.Stream;
-
-import static net.rolandbrt.patchsync.snapshot.SnapshotManager.FORMATTER;
+import java.util.stream.Collectors;
 
 @Slf4j
 public class RollbackCommand implements Command {
@@ -21,55 +16,48 @@ public class RollbackCommand implements Command {
     @Override
     public void execute(String[] args) {
         if (args.length == 1 && args[0].equalsIgnoreCase("list")) {
-            Path snapshotsDir = Paths.get(App.getInstance().getSyncManager().getSnapshotManager().getSnapshotsDir().getPath());
-            if (!Files.exists(snapshotsDir) || !Files.isDirectory(snapshotsDir)) {
-                log.warn("Snapshots folder does not exist: {}", snapshotsDir);
+            SnapshotManager snapshotManager = App.getInstance().getSyncManager().getSnapshotManager();
+            List<SnapshotManifest> snapshots = snapshotManager.getIndex().list();
+            if (snapshots.isEmpty()) {
+                log.info("No snapshots found.");
                 return;
             }
-            try (Stream<Path> paths = Files.list(snapshotsDir)) {
-                List<Path> snapshotDirs = paths
-                        .filter(Files::isDirectory)
-                        .sorted()
-                        .toList();
-                if (snapshotDirs.isEmpty()) {
-                    log.info("No snapshots found.");
-                    return;
-                }
-                log.info("Available snapshots:");
-                for (Path dir : snapshotDirs) {
-                    String name = dir.getFileName().toString();
-                    File snapshotDir = dir.toFile();
-                    if (!snapshotDir.exists() || !snapshotDir.isDirectory()) {
-                        continue;
-                    }
-                    String display = name;
-                    int artifactCount = 0;
-                    StringBuilder artifacts = new StringBuilder();
-                    try (Stream<Path> snapshotPaths = Files.list(snapshotDir.toPath())) {
-                        for (Path file : snapshotPaths.toList()) {
-                            if (!Files.isRegularFile(file)) continue;
-                            artifactCount++;
-                            if (!artifacts.isEmpty())
-                                artifacts.append(",");
-                            artifacts.append(file.getFileName().toString().split("\\.")[0]);
-                        }
-                        LocalDateTime dt = LocalDateTime.parse(name, FORMATTER);
-                        display = dt.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-                    } catch (Exception e) {
-                        log.error("Error resolving snapshot {}", name, e);
-                    }
-                    log.info("{}[{}] ({}): {}", name, artifactCount, display, artifacts);
+            log.info("Available snapshots:");
+            // Oldest first, so the newest ends up next to the prompt
+            for (int i = snapshots.size() - 1; i >= 0; i--) {
+                SnapshotManifest manifest = snapshots.get(i);
+                String name = manifest.getId();
+                String display = name;
+                try {
+                    display = SnapshotManager.parseTimestamp(name).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+                } catch (Exception e) {
+                    log.error("Error resolving snapshot {}", name, e);
                 }
-            } catch (IOException e) {
-                log.error("Failed to list snapshots", e);
+                String artifacts = manifest.getEntries().stream()
+                        .map(entry -> entry.getName() + ":" + entry.getRepo())
+                        .collect(Collectors.joining(","));
+                log.info("{}[{}] ({}){}: {}", name, manifest.getEntries().size(), display,
+                        manifest.isPinned() ? " pinned" : "", artifacts);
             }
             return;
         }
-        if (args.length == 2) {
-            App.getInstance().getSyncManager().rollback(args[0], args[1]);
+        if (args.length >= 2 && args.length % 2 == 0) {
+            RollbackMessage.RollbackMessageBuilder message = RollbackMessage.builder().snapshotId(args[0]).reason(args[1]);
+            for (int i = 2; i < args.length; i += 2) {
+                switch (args[i].toLowerCase()) {
+                    case "--repo" -> message.repoName(args[i + 1]);
+                    case "--artifact" -> message.artifactName(args[i + 1]);
+                    case "--target" -> message.targetName(args[i + 1]);
+                    default -> {
+                        log.info("Unknown option {}", args[i]);
+                        return;
+                    }
+                }
+            }
+            App.getInstance().getSyncManager().rollback(message.build());
             return;
         }
         log.info("Usage: rollback list");
-        log.info("Usage: rollback <snapshotId> <reason>");
+        log.info("Usage: rollback <snapshotId> <reason> [--repo <repo>] [--artifact <name>] [--target <target>]");
     }
 }
\ No newline at end of file
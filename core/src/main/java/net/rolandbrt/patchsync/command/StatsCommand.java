@@ -0,0 +1,40 @@
+package net.rolandbrt.patchsync.command;
+
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.metrics.Counter;
+import net.rolandbrt.patchsync.metrics.Metrics;
+import net.rolandbrt.patchsync.metrics.Timer;
+
+import java.util.Map;
+
+@Slf4j
+public class StatsCommand implements Command {
+
+    @Override
+    public void execute(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+        int shown = 0;
+        for (Map.Entry<String, Timer> entry : Metrics.getTimers().entrySet()) {
+            Timer timer = entry.getValue();
+            if (!entry.getKey().contains(filter) || timer.getCount() == 0) continue;
+            log.info("{}: {} times, avg {}ms, max {}ms, total {}ms", entry.getKey(), timer.getCount(),
+                    String.format("%.2f", timer.getMeanMillis()), timer.getMaxNanos() / 1_000_000,
+                    timer.getTotalNanos() / 1_000_000);
+            shown++;
+        }
+        for (Map.Entry<String, Counter> entry : Metrics.getCounters().entrySet()) {
+            if (!entry.getKey().contains(filter)) continue;
+            log.info("{}: {}", entry.getKey(), entry.getValue().get());
+            shown++;
+        }
+        for (Map.Entry<String, Double> entry : Metrics.getGauges().entrySet()) {
+            if (!entry.getKey().contains(filter)) continue;
+            double value = entry.getValue();
+            log.info("{}: {}", entry.getKey(), value == Math.rint(value) ? String.valueOf((long) value) : String.format("%.2f", value));
+            shown++;
+        }
+        if (shown == 0) {
+            log.info("No metrics recorded yet.");
+        }
+    }
+}
\ No newline at end of file
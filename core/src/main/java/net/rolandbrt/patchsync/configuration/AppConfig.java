@@ -10,4 +10,6 @@ public class AppConfig {
     private Map<String, TargetConfig> targets;
     private SnapshotConfig snapshot;
     private GithubConfig githubConfig;
+    private SyncConfig sync = new SyncConfig();
+    private PluginConfig plugins = new PluginConfig();
 }
\ No newline at end of file
@@ -8,4 +8,16 @@ public class ArtifactRepoConfig {
     private String repo;
     private String branch;
     private RepositoryCredentials credentials;
+    /**
+     * History depth to clone and fetch, 0 for the full history.
+     */
+    private int depth;
+    /**
+     * Only clone and fetch the configured branch.
+     */
+    private boolean singleBranch;
+    /**
+     * Only check out repo-config.json and the artifact paths it lists.
+     */
+    private boolean sparse;
 }
\ No newline at end of file
@@ -4,12 +4,17 @@ import lombok.extern.slf4j.Slf4j;
 import net.rolandbrt.patchsync.util.JsonUtils;
 
 import java.io.*;
+import java.nio.file.Path;
 
 @Slf4j
 public class ConfigLoader {
 
     private static final String CONFIG_PATH = "config.json", DEFAULT_CONFIG_PATH = "default-config.json";
 
+    public static Path path() {
+        return new File(CONFIG_PATH).getAbsoluteFile().toPath();
+    }
+
     public static AppConfig loadOrInit() {
         File file = new File(CONFIG_PATH);
         if (!file.exists()) {
@@ -27,13 +32,26 @@ public class ConfigLoader {
             }
         }
         try {
-            AppConfig config = JsonUtils.fromJson(file, AppConfig.class);
-            log.info("Loaded configuration with {} repos and {} targets",
-                    config.getRepositories().size(),
-                    config.getTargets().size());
-            return config;
+            return load();
         } catch (Exception e) {
             throw new RuntimeException("Failed to load " + CONFIG_PATH, e);
         }
     }
+
+    /**
+     * Parse the config file as a whole, nothing is returned unless every section could be read.
+     *
+     * @return Loaded config
+     */
+    public static AppConfig load() throws Exception {
+        AppConfig config = JsonUtils.fromJson(new File(CONFIG_PATH), AppConfig.class);
+        if (config.getRepositories() == null || config.getTargets() == null
+                || config.getSnapshot() == null || config.getGithubConfig() == null) {
+            throw new IllegalStateException("Missing repositories, targets, snapshot or githubConfig section");
+        }
+        log.info("Loaded configuration with {} repos and {} targets",
+                config.getRepositories().size(),
+                config.getTargets().size());
+        return config;
+    }
 }
\ No newline at end of file
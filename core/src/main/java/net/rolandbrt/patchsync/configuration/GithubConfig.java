@@ -7,4 +7,13 @@ public class GithubConfig {
     private int port;
     private String endpoint;
     private String token;
+    /**
+     * Largest accepted notification body, larger requests are rejected with 413.
+     */
+    private int maxBodyBytes = 64 * 1024;
+    /**
+     * Path of the metrics scrape endpoint on the webhook port, disabled when empty.
+     * It requires the webhook token, as X-Auth-Token or as a bearer token.
+     */
+    private String metricsEndpoint = "";
 }
\ No newline at end of file
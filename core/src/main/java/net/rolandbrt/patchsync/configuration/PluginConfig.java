@@ -0,0 +1,31 @@
+package net.rolandbrt.patchsync.configuration;
+
+import lombok.Data;
+
+@Data
+public class PluginConfig {
+    /**
+     * Number of plugin jars loaded concurrently at startup.
+     */
+    private int loadThreads = 4;
+    /**
+     * Number of threads delivering events to each plugin, every plugin has its own pool.
+     */
+    private int eventThreads = 4;
+    /**
+     * Time a plugin is given to handle a single event before it is abandoned.
+     */
+    private long eventTimeoutMillis = 10000;
+    /**
+     * Maximum number of events a single plugin may have in flight, further events to it are dropped.
+     */
+    private int maxPendingEvents = 16;
+    /**
+     * Reload plugins when jars in the plugins directory are added, replaced or removed.
+     */
+    private boolean watch = true;
+    /**
+     * Time without further changes in the plugins directory before plugins are reloaded.
+     */
+    private long reloadDelayMillis = 1000;
+}
\ No newline at end of file
@@ -6,4 +6,25 @@ import lombok.Data;
 public class SnapshotConfig {
     private int keepDays;
     private int maxSnapshots;
+    /**
+     * Compression of stored artifacts: "none" or "deflate".
+     */
+    private String compression = "none";
+    /**
+     * Deflate level from 1 (fastest) to 9 (smallest).
+     */
+    private int compressionLevel = 6;
+    /**
+     * Upper bound for the space used by snapshot objects in bytes, 0 for no limit.
+     */
+    private long maxTotalBytes;
+    /**
+     * How often old snapshots are purged in the background, in addition to after every new snapshot.
+     */
+    private long retentionIntervalMinutes = 60;
+    /**
+     * Hard link uncompressed objects from and to the snapshotted files instead of copying them,
+     * only safe when those files are never modified in place.
+     */
+    private boolean hardLink;
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package net.rolandbrt.patchsync.configuration;
+
+import lombok.Data;
+
+@Data
+public class SyncConfig {
+    /**
+     * Maximum number of repositories cloned or pulled at the same time, across manual checks and webhook lanes.
+     */
+    private int repoThreads = 4;
+    /**
+     * Seconds after which a single clone or pull is abandoned.
+     */
+    private int repoTimeoutSeconds = 300;
+    /**
+     * Use virtual threads for repository fetches when running on Java 21+.
+     */
+    private boolean virtualThreads = true;
+    /**
+     * Maximum number of repositories kept open between updates.
+     */
+    private int gitCacheSize = 16;
+    /**
+     * Seconds after which an unused open repository is closed.
+     */
+    private int gitCacheIdleSeconds = 600;
+    /**
+     * Quiet period after the last webhook notification before pending updates are processed together.
+     */
+    private long debounceMillis = 2000;
+    /**
+     * Maximum time a webhook notification waits for the quiet period.
+     */
+    private long maxDebounceMillis = 10000;
+    /**
+     * Maximum number of snapshot + deploy (or rollback) operations running at the same time.
+     */
+    private int maxConcurrentDeploys = 1;
+    /**
+     * Maximum number of accepted but unprocessed notifications, further ones are rejected with 429.
+     */
+    private int inboxCapacity = 1000;
+    /**
+     * Reload config.json when it changes.
+     */
+    private boolean watchConfig = true;
+    /**
+     * Quiet period after the last change to config.json before it is reloaded.
+     */
+    private long configReloadDelayMillis = 1000;
+}
\ No newline at end of file
@@ -8,4 +8,13 @@ import java.util.List;
 public class TargetConfig {
     private String path;
     private List<String> artifacts;
+    /**
+     * Number of artifacts copied concurrently into this target.
+     */
+    private int parallelism = 1;
+    /**
+     * Hard link artifacts into this target instead of copying them, only safe when neither the repository
+     * checkout nor the target ever modifies a deployed file in place.
+     */
+    private boolean hardLink;
 }
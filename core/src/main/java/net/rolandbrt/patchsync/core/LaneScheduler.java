@@ -0,0 +1,90 @@
+package net.rolandbrt.patchsync.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks in one serialized lane per key (repository), with lanes running in parallel.
+ * A task may keep its lane blocked after it finished, until a later stage (e.g. the deploy of its batch) completed,
+ * so work of the same repository is never reordered.
+ * Tasks spanning several lanes must be queued together with {@link #submitAll(Map, CompletableFuture)}: two batches
+ * queued lane by lane could each end up ahead of the other on one of their lanes and wait on each other forever.
+ */
+@Slf4j
+public class LaneScheduler {
+    private final ExecutorService workers;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    public LaneScheduler(ExecutorService workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Queue a task on a lane.
+     *
+     * @param key       Lane key
+     * @param task      Task to run once every earlier task of the lane released it
+     * @param holdUntil The lane stays blocked until this future completes, in addition to the task itself
+     * @return Result of the task
+     */
+    public synchronized <T> CompletableFuture<T> submit(String key, Callable<T> task, CompletableFuture<?> holdUntil) {
+        return enqueue(key, task, holdUntil);
+    }
+
+    /**
+     * Queue one task on each of several lanes as a single batch, see {@link #submit(String, Callable, CompletableFuture)}.
+     * All lanes are queued at once, so batches sharing lanes run in the same order on every one of them.
+     *
+     * @param tasks     Task per lane key
+     * @param holdUntil Every lane of the batch stays blocked until this future completes
+     * @return Result of the task per lane key, in the order of {@code tasks}
+     */
+    public synchronized <T> Map<String, CompletableFuture<T>> submitAll(Map<String, Callable<T>> tasks,
+                                                                         CompletableFuture<?> holdUntil) {
+        Map<String, CompletableFuture<T>> results = new LinkedHashMap<>();
+        tasks.forEach((key, task) -> results.put(key, enqueue(key, task, holdUntil)));
+        return results;
+    }
+
+    private <T> CompletableFuture<T> enqueue(String key, Callable<T> task, CompletableFuture<?> holdUntil) {
+        Lane lane = lanes.computeIfAbsent(key, k -> new Lane());
+        lane.depth.incrementAndGet();
+        CompletableFuture<T> result = lane.tail
+                .handle((ignored, throwable) -> null)
+                .thenApplyAsync(ignored -> {
+                    try {
+                        return task.call();
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, workers);
+        lane.tail = result
+                .handle((ignored, throwable) -> null)
+                .thenCompose(ignored -> holdUntil.handle((value, throwable) -> null))
+                .whenComplete((ignored, throwable) -> lane.depth.decrementAndGet());
+        return result;
+    }
+
+    /**
+     * Number of queued or running tasks per lane.
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new TreeMap<>();
+        lanes.forEach((key, lane) -> depths.put(key, lane.depth.get()));
+        return depths;
+    }
+
+    public void close() {
+        workers.shutdown();
+    }
+
+    private static class Lane {
+        private final AtomicInteger depth = new AtomicInteger();
+        private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+    }
+}
\ No newline at end of file
@@ -1,30 +1,60 @@
 package net.rolandbrt.patchsync.core;
 
+import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.rolandbrt.patchsync.App;
 import net.rolandbrt.patchsync.configuration.AppConfig;
+import net.rolandbrt.patchsync.configuration.GithubConfig;
+import net.rolandbrt.patchsync.deploy.DeployResult;
 import net.rolandbrt.patchsync.deploy.DeploymentManager;
-import net.rolandbrt.patchsync.event.DeployUpdateEvent;
-import net.rolandbrt.patchsync.event.RollbackUpdateEvent;
+import net.rolandbrt.patchsync.deploy.RestoredFile;
+import net.rolandbrt.patchsync.deploy.TargetResult;
+import net.rolandbrt.patchsync.event.*;
+import net.rolandbrt.patchsync.metrics.Metrics;
+import net.rolandbrt.patchsync.plugin.PluginManager;
+import net.rolandbrt.patchsync.network.RollbackMessage;
 import net.rolandbrt.patchsync.network.UpdateMessage;
 import net.rolandbrt.patchsync.data.Artifact;
+import net.rolandbrt.patchsync.repository.RepoCheck;
 import net.rolandbrt.patchsync.repository.RepositoryManager;
 import net.rolandbrt.patchsync.data.Snapshot;
 import net.rolandbrt.patchsync.snapshot.SnapshotManager;
+import net.rolandbrt.patchsync.snapshot.SnapshotManifest;
 import net.rolandbrt.patchsync.util.JsonUtils;
+import net.rolandbrt.patchsync.util.ThreadUtils;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @Slf4j
 public class SyncManager {
     private final ExecutorService httpThread = Executors.newFixedThreadPool(2);
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ExecutorService workers = Executors.newCachedThreadPool(ThreadUtils.named("lane"));
+    private final LaneScheduler lanes = new LaneScheduler(workers);
 
     @Getter
     private RepositoryManager repositoryManager;
@@ -33,92 +63,438 @@ public class SyncManager {
     @Getter
     private DeploymentManager deploymentManager;
 
-    private String token;
+    private volatile AppConfig config;
     private HttpServer server;
+    private UpdateCoalescer coalescer;
+    private UpdateInbox inbox;
+    private Semaphore diskPermits;
+    private final Map<String, Long> receivedAt = new ConcurrentHashMap<>();
 
     public void init(AppConfig config) throws Exception {
+        this.config = config;
         repositoryManager = new RepositoryManager(config);
         snapshotManager = new SnapshotManager(config.getSnapshot());
         deploymentManager = new DeploymentManager(config.getTargets());
         server = HttpServer.create(new InetSocketAddress(config.getGithubConfig().getPort()), 0);
-        token = config.getGithubConfig().getToken();
+        diskPermits = new Semaphore(Math.max(1, config.getSync().getMaxConcurrentDeploys()));
+        coalescer = new UpdateCoalescer(config.getSync().getDebounceMillis(), config.getSync().getMaxDebounceMillis(),
+                executor, this::processUpdates);
+        inbox = new UpdateInbox(new File("inbox.journal"), config.getSync().getInboxCapacity());
+        inbox.open().forEach(coalescer::submit);
         server.createContext("/" + config.getGithubConfig().getEndpoint(), exchange -> {
-            if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
-                String authToken = exchange.getRequestHeaders().getFirst("X-Auth-Token");
-                if (!token.equals(authToken)) {
-                    exchange.sendResponseHeaders(403, 0);
-                    exchange.close();
-                    return;
-                }
-                String payload = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-                executor.submit(() -> {
-                    log.info("Received GitHub update notification {}", payload);
-                    try {
-                        UpdateMessage message = JsonUtils.fromJson(payload, UpdateMessage.class);
-                        List<Artifact> artifacts = repositoryManager.fetchArtifactsFromMessage(message);
-                        log.info("Found {} artifacts for repo {}", artifacts.size(), message.getRepoName());
-                        deployUpdate(artifacts, "Auto-update from GitHub");
-                    } catch (Exception e) {
-                        log.error("Failed to process update notification", e);
-                    }
-                });
-                exchange.sendResponseHeaders(200, 0);
-                exchange.close();
-            } else {
-                exchange.sendResponseHeaders(405, 0);
-                exchange.close();
+            long start = System.nanoTime();
+            try {
+                handleWebhook(exchange);
+            } finally {
+                Metrics.timer("webhook_receive").recordSince(start);
+                Metrics.counter("webhook_requests", "status", String.valueOf(exchange.getResponseCode())).increment();
             }
         });
+        String metricsEndpoint = config.getGithubConfig().getMetricsEndpoint();
+        if (metricsEndpoint != null && !metricsEndpoint.isBlank()) {
+            server.createContext("/" + metricsEndpoint, this::handleMetrics);
+        }
+        Metrics.gauge("queue_depth", () -> lanes.getQueueDepths().values().stream().mapToInt(Integer::intValue).sum());
+        Metrics.gauge("inbox_pending", inbox::size);
         server.setExecutor(httpThread);
         server.start();
         log.info("Endpoint listening on port 8080");
     }
 
+    private void handleWebhook(HttpExchange exchange) throws IOException {
+        if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            // Read once, so a reload never mixes the token and limits of two configs in one request
+            GithubConfig github = this.config.getGithubConfig();
+            String authToken = exchange.getRequestHeaders().getFirst("X-Auth-Token");
+            if (!github.getToken().equals(authToken)) {
+                exchange.sendResponseHeaders(403, 0);
+                exchange.close();
+                return;
+            }
+            int maxBodyBytes = github.getMaxBodyBytes();
+            String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (contentLength != null && parseLength(contentLength) > maxBodyBytes) {
+                exchange.sendResponseHeaders(413, -1);
+                exchange.close();
+                return;
+            }
+            // Never buffer more than the limit, whatever the sender claims
+            byte[] body = exchange.getRequestBody().readNBytes(maxBodyBytes + 1);
+            if (body.length > maxBodyBytes) {
+                exchange.sendResponseHeaders(413, -1);
+                exchange.close();
+                return;
+            }
+            String payload = new String(body, StandardCharsets.UTF_8);
+            log.info("Received GitHub update notification {}", payload);
+            UpdateMessage message;
+            try {
+                message = JsonUtils.fromJson(payload, UpdateMessage.class);
+            } catch (Exception e) {
+                log.error("Failed to parse update notification", e);
+                exchange.sendResponseHeaders(400, 0);
+                exchange.close();
+                return;
+            }
+            if (message == null || message.getRepoName() == null || !repositoryManager.isConfigured(message.getRepoName())) {
+                // Rejected before journaling, a journaled notification would be replayed on every restart
+                log.warn("Rejecting update notification for unknown repo {}", message == null ? null : message.getRepoName());
+                exchange.sendResponseHeaders(400, -1);
+                exchange.close();
+                return;
+            }
+            try {
+                if (!inbox.offer(message)) {
+                    log.warn("Inbox full ({} pending), rejecting update notification for {}", inbox.size(), message.getRepoName());
+                    exchange.getResponseHeaders().add("Retry-After", "30");
+                    exchange.sendResponseHeaders(429, -1);
+                    exchange.close();
+                    return;
+                }
+            } catch (IOException e) {
+                log.error("Failed to store update notification", e);
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            // Only the oldest waiting notification of a repository counts, later ones are coalesced into it
+            receivedAt.putIfAbsent(message.getRepoName(), System.nanoTime());
+            coalescer.submit(message);
+            exchange.sendResponseHeaders(200, 0);
+            exchange.close();
+        } else {
+            exchange.sendResponseHeaders(405, 0);
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        // Scrapers usually only send an Authorization header, so a bearer token is accepted as well
+        String token = config.getGithubConfig().getToken();
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (!token.equals(exchange.getRequestHeaders().getFirst("X-Auth-Token")) && !("Bearer " + token).equals(authorization)) {
+            exchange.sendResponseHeaders(403, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Apply a reloaded config in place.
+     * Targets and the webhook token switch over at once, repositories whose URL or branch changed are cloned again
+     * on their lane, after any update already queued for them. Every other repository keeps its clone.
+     *
+     * @param next Reloaded config
+     */
+    public synchronized void applyConfig(AppConfig next) {
+        AppConfig previous = config;
+        Set<String> moved = repositoryManager.updateConfig(next);
+        if (!Objects.equals(previous.getTargets(), next.getTargets())) {
+            deploymentManager.updateTargets(next.getTargets());
+        }
+        GithubConfig oldGithub = previous.getGithubConfig(), newGithub = next.getGithubConfig();
+        if (oldGithub.getPort() != newGithub.getPort() || !Objects.equals(oldGithub.getEndpoint(), newGithub.getEndpoint())
+                || !Objects.equals(oldGithub.getMetricsEndpoint(), newGithub.getMetricsEndpoint())) {
+            log.warn("Changes to the webhook port or endpoints need a restart");
+        }
+        if (!Objects.equals(previous.getSync(), next.getSync())) {
+            log.warn("Changes to the sync section need a restart");
+        }
+        if (!Objects.equals(previous.getSnapshot(), next.getSnapshot())) {
+            log.warn("Changes to the snapshot section need a restart");
+        }
+        if (!Objects.equals(previous.getPlugins(), next.getPlugins())) {
+            log.warn("Changes to the plugins section need a restart");
+        }
+        config = next;
+        for (String name : moved) {
+            lanes.submit(name, () -> {
+                repositoryManager.reset(name);
+                return null;
+            }, CompletableFuture.completedFuture(null)).whenComplete((ignored, throwable) -> {
+                if (throwable != null) {
+                    log.error("Failed to reset repo {}", name, throwable.getCause());
+                    return;
+                }
+                UpdateMessage message = new UpdateMessage();
+                message.setRepoName(name);
+                coalescer.submit(message);
+            });
+        }
+        log.info("Applied reloaded config, {} repos to clone again", moved.size());
+    }
+
     public void close() {
         httpThread.shutdown();
+        if (coalescer != null) {
+            coalescer.close();
+        }
         executor.shutdown();
+        lanes.close();
+        if (inbox != null) {
+            inbox.close();
+        }
+        if (repositoryManager != null) {
+            repositoryManager.close();
+        }
         if (deploymentManager != null) {
             deploymentManager.close();
         }
+        if (snapshotManager != null) {
+            snapshotManager.close();
+        }
         if (server != null) {
             log.info("Stopping endpoint...");
             server.stop(0);
         }
     }
 
+    /**
+     * Fetch every repository of a batch of notifications on its own lane and deploy their artifacts with a single snapshot.
+     * Each lane stays blocked until the batch is deployed, so later updates of a repository never overtake it.
+     *
+     * @param messages Notifications, at most one per repository
+     */
+    private void processUpdates(List<UpdateMessage> messages) {
+        CompletableFuture<Void> deployed = new CompletableFuture<>();
+        try {
+            Map<String, Callable<List<Artifact>>> tasks = new LinkedHashMap<>();
+            for (UpdateMessage message : messages) {
+                String name = message.getRepoName();
+                if (name == null || !repositoryManager.isConfigured(name)) {
+                    // Acked with the batch, so it is never replayed
+                    log.warn("Ignoring update notification for unknown repo {}", name);
+                    continue;
+                }
+                Long received = receivedAt.remove(name);
+                tasks.put(name, () -> {
+                    if (received != null) Metrics.timer("queue_wait").recordSince(received);
+                    List<Artifact> repoArtifacts = repositoryManager.fetchArtifactsFromMessage(message);
+                    log.info("Found {} artifacts for repo {}", repoArtifacts.size(), name);
+                    return repoArtifacts;
+                });
+            }
+            List<CompletableFuture<List<Artifact>>> fetches = new ArrayList<>();
+            lanes.submitAll(tasks, deployed).forEach((name, fetch) -> fetches.add(fetch.exceptionally(throwable -> {
+                log.error("Failed to process update notification for repo {}", name, throwable.getCause());
+                return List.of();
+            })));
+            CompletableFuture.allOf(fetches.toArray(CompletableFuture[]::new))
+                    .thenRunAsync(() -> {
+                        List<Artifact> artifacts = fetches.stream().flatMap(fetch -> fetch.join().stream()).toList();
+                        if (artifacts.isEmpty()) return;
+                        deployUpdate(artifacts, "Auto-update from GitHub");
+                    }, workers)
+                    .whenComplete((ignored, throwable) -> {
+                        if (throwable != null) log.error("Failed to deploy update batch", throwable);
+                        inbox.ack(messages);
+                        deployed.complete(null);
+                    });
+        } catch (RuntimeException e) {
+            // Never leave the lanes of this batch held, e.g. when the workers are already shut down
+            log.error("Failed to schedule update batch", e);
+            deployed.complete(null);
+        }
+    }
+
+    private static long parseLength(String contentLength) {
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Number of queued or running updates per repository lane.
+     */
+    public Map<String, Integer> getQueueDepths() {
+        return lanes.getQueueDepths();
+    }
+
+    /**
+     * Clone or pull every configured repository on its own lane and deploy their artifacts with a single snapshot.
+     * Like webhook updates, each lane stays blocked until the deploy finished.
+     */
     public void checkAll() {
-        List<Artifact> artifacts = repositoryManager.checkAllRepos();
-        if (!artifacts.isEmpty()) {
-            deployUpdate(artifacts, "Manual check");
-        } else {
-            log.info("No updates found.");
+        log.info("Checking all repos for updates...");
+        long start = System.currentTimeMillis();
+        CompletableFuture<Void> deployed = new CompletableFuture<>();
+        try {
+            Map<String, Callable<RepoCheck>> tasks = new LinkedHashMap<>();
+            for (String name : repositoryManager.getRepositoryNames()) {
+                tasks.put(name, () -> repositoryManager.checkRepo(name));
+            }
+            Map<String, CompletableFuture<RepoCheck>> checks = lanes.submitAll(tasks, deployed);
+            List<Artifact> artifacts = new ArrayList<>();
+            List<String> changed = new ArrayList<>(), unchanged = new ArrayList<>();
+            List<String> failed = new ArrayList<>(), timedOut = new ArrayList<>();
+            for (Map.Entry<String, CompletableFuture<RepoCheck>> check : checks.entrySet()) {
+                try {
+                    RepoCheck result = check.getValue().join();
+                    (result.changed() ? changed : unchanged).add(check.getKey());
+                    artifacts.addAll(result.artifacts());
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+                    (cause instanceof TimeoutException ? timedOut : failed).add(check.getKey());
+                    log.error("Failed to update repo {} -> {}", check.getKey(), cause.getMessage());
+                }
+            }
+            log.info("Checked {} repos in {}ms, changed: {}, unchanged: {}, failed: {}, timed out: {}",
+                    checks.size(), System.currentTimeMillis() - start, changed, unchanged, failed, timedOut);
+            if (!artifacts.isEmpty()) {
+                deployUpdate(artifacts, "Manual check");
+            } else {
+                log.info("No updates found.");
+            }
+        } finally {
+            deployed.complete(null);
         }
     }
 
-    public void deployUpdate(List<Artifact> artifacts, String reason) {
+    public DeployResult deployUpdate(List<Artifact> artifacts, String reason) {
         if (artifacts.isEmpty()) {
             log.warn("No artifacts to deploy");
-            return;
+            return DeployResult.empty();
+        }
+        long waiting = System.nanoTime();
+        diskPermits.acquireUninterruptibly();
+        long start = System.nanoTime();
+        Metrics.timer("deploy_permit_wait").record(start - waiting);
+        try {
+            return deploy(artifacts, reason);
+        } finally {
+            diskPermits.release();
+            Metrics.timer("deploy_update").recordSince(start);
+        }
+    }
+
+    private DeployResult deploy(List<Artifact> artifacts, String reason) {
+        // Every artifact file is hashed at most once, by whichever step needs its digest first
+        ConcurrentMap<Path, String> digests = new ConcurrentHashMap<>();
+        List<Artifact> changed = deploymentManager.filterChanged(artifacts, digests);
+        Metrics.counter("artifacts_unchanged").add(artifacts.size() - changed.size());
+        if (changed.isEmpty()) {
+            log.info("All {} artifacts are already deployed", artifacts.size());
+            repositoryManager.markDeployed(artifacts);
+            return DeployResult.empty();
         }
-        Snapshot snapshot = snapshotManager.createSnapshot(artifacts, reason);
+        Snapshot snapshot = snapshotManager.createSnapshot(changed, reason, deploymentManager::targetPaths, digests);
 
-        DeployUpdateEvent event = new DeployUpdateEvent(List.copyOf(artifacts), snapshot);
+        PreDeployEvent event = new PreDeployEvent(List.copyOf(changed), snapshot);
         App.getInstance().getPluginManager().fireEvent(event);
 
-        deploymentManager.deploy(artifacts);
+        DeployResult result = deployAndNotify(changed, target -> true, reason, digests);
+        if (result.isSuccess()) {
+            repositoryManager.markDeployed(artifacts);
+        }
+        return result;
     }
 
     public void rollback(String snapshotId, String reason) {
-        List<Artifact> restored = snapshotManager.restore(snapshotId);
-        if (restored.isEmpty()) {
-            log.warn("Nothing to rollback in snapshot {}", snapshotId);
-            return;
+        rollback(RollbackMessage.builder().snapshotId(snapshotId).reason(reason).build());
+    }
+
+    /**
+     * Roll back a whole snapshot, or only the artifacts and targets selected by the message.
+     */
+    public void rollback(RollbackMessage message) {
+        diskPermits.acquireUninterruptibly();
+        try {
+            restore(message);
+        } finally {
+            diskPermits.release();
         }
-        RollbackUpdateEvent event = new RollbackUpdateEvent(List.copyOf(restored), snapshotId, reason);
-        App.getInstance().getPluginManager().fireEvent(event);
+    }
 
-        deploymentManager.deploy(restored);
+    private void restore(RollbackMessage message) {
+        String snapshotId = message.getSnapshotId(), reason = message.getReason();
+        Predicate<SnapshotManifest.Entry> filter = entry ->
+                (message.getRepoName() == null || message.getRepoName().equalsIgnoreCase(entry.getRepo()))
+                        && (message.getArtifactName() == null || message.getArtifactName().equalsIgnoreCase(entry.getName()))
+                        && (message.getTargetName() == null
+                        || deploymentManager.receives(message.getTargetName(), entry.getName(), entry.getRepo()));
+        Predicate<String> targets = message.getTargetName() == null ? target -> true : message.getTargetName()::equals;
+        if (snapshotManager.isTargetSnapshot(snapshotId)) {
+            // Write every replaced file back to where it was taken from
+            Map<Path, RestoredFile> files = snapshotManager.restoreTargetFiles(snapshotId, filter);
+            if (files.isEmpty()) {
+                log.warn("Nothing to rollback in snapshot {}", snapshotId);
+                return;
+            }
+            List<Artifact> restored = files.values().stream().distinct().map(RestoredFile::getArtifact).toList();
+            App.getInstance().getPluginManager().fireEvent(new RollbackUpdateEvent(restored, snapshotId, reason));
+            notifyResult(deploymentManager.restore(files, targets, notifyTarget(reason)), reason);
+        } else {
+            List<Artifact> restored = snapshotManager.restore(snapshotId, filter);
+            if (restored.isEmpty()) {
+                log.warn("Nothing to rollback in snapshot {}", snapshotId);
+                return;
+            }
+            try {
+                RollbackUpdateEvent event = new RollbackUpdateEvent(List.copyOf(restored), snapshotId, reason);
+                App.getInstance().getPluginManager().fireEvent(event);
+
+                deployAndNotify(restored, targets, reason);
+            } finally {
+                snapshotManager.discardRestored(restored);
+            }
+        }
 
-        log.info("Rollback completed for snapshot {}", snapshotId);
+        if (message.isPartial())
+            log.info("Partial rollback completed for snapshot {}", snapshotId);
+        else
+            log.info("Rollback completed for snapshot {}", snapshotId);
+    }
+
+    /**
+     * Deploy artifacts, firing {@link ArtifactDeployedEvent} for every completed target and then
+     * {@link PostDeployEvent} or {@link DeployFailedEvent}.
+     */
+    private DeployResult deployAndNotify(List<Artifact> artifacts, Predicate<String> selected, String reason) {
+        return deployAndNotify(artifacts, selected, reason, new ConcurrentHashMap<>());
+    }
+
+    private DeployResult deployAndNotify(List<Artifact> artifacts, Predicate<String> selected, String reason,
+                                         ConcurrentMap<Path, String> digests) {
+        return notifyResult(deploymentManager.deploy(artifacts, selected, notifyTarget(reason), digests), reason);
+    }
+
+    private Consumer<TargetResult> notifyTarget(String reason) {
+        PluginManager pluginManager = App.getInstance().getPluginManager();
+        return target -> {
+            if (!target.getDeployed().isEmpty()) {
+                pluginManager.fireEvent(new ArtifactDeployedEvent(target.getTarget(), target.getPath(),
+                        List.copyOf(target.getDeployed()), reason));
+            }
+        };
+    }
+
+    private DeployResult notifyResult(DeployResult result, String reason) {
+        PluginManager pluginManager = App.getInstance().getPluginManager();
+        if (result.isSuccess()) {
+            List<Artifact> deployed = result.getTargets().stream()
+                    .flatMap(target -> target.getDeployed().stream()).distinct().toList();
+            List<String> targets = result.getTargets().stream().map(TargetResult::getTarget).toList();
+            pluginManager.fireEvent(new PostDeployEvent(deployed, targets, reason, result.getDurationMillis()));
+        } else {
+            List<Artifact> failed = result.getTargets().stream()
+                    .flatMap(target -> target.getFailed().stream()).distinct().toList();
+            List<String> failedTargets = result.getTargets().stream()
+                    .filter(target -> !target.isSuccess()).map(TargetResult::getTarget).toList();
+            pluginManager.fireEvent(new DeployFailedEvent(failed, failedTargets, reason));
+        }
+        return result;
     }
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package net.rolandbrt.patchsync.core;
+
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.network.UpdateMessage;
+import net.rolandbrt.patchsync.util.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Collapses bursts of update notifications.
+ * Pending notifications are keyed by repository (the latest one wins) and handed over as one batch
+ * once no new notification arrived for the debounce window, or the maximum delay since the first one passed.
+ */
+@Slf4j
+public class UpdateCoalescer {
+    private final long debounceMillis, maxDelayMillis;
+    private final ExecutorService executor;
+    private final Consumer<List<UpdateMessage>> handler;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(ThreadUtils.named("coalescer"));
+    private final Map<String, UpdateMessage> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> flush;
+    private long firstPendingAt;
+
+    /**
+     * @param debounceMillis Quiet period after the last notification before a batch is handed over
+     * @param maxDelayMillis Maximum time a notification waits for the quiet period
+     * @param executor       Executor running the handler
+     * @param handler        Receives every batch of notifications, at most one per repository
+     */
+    public UpdateCoalescer(long debounceMillis, long maxDelayMillis, ExecutorService executor, Consumer<List<UpdateMessage>> handler) {
+        this.debounceMillis = Math.max(0, debounceMillis);
+        this.maxDelayMillis = Math.max(this.debounceMillis, maxDelayMillis);
+        this.executor = executor;
+        this.handler = handler;
+    }
+
+    public synchronized void submit(UpdateMessage message) {
+        UpdateMessage previous = pending.put(message.getRepoName(), message);
+        if (previous != null) {
+            log.info("Coalesced update of {} ({} -> {})", message.getRepoName(), previous.getCommit(), message.getCommit());
+        }
+        long now = System.currentTimeMillis();
+        if (flush == null) {
+            firstPendingAt = now;
+        } else {
+            flush.cancel(false);
+        }
+        long delay = Math.min(debounceMillis, firstPendingAt + maxDelayMillis - now);
+        flush = scheduler.schedule(this::flush, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        synchronized (this) {
+            flush = null;
+        }
+        // Drain when the task actually runs, so notifications arriving while it is queued join the batch
+        executor.submit(() -> {
+            List<UpdateMessage> batch = drain();
+            if (batch.isEmpty()) return;
+            try {
+                handler.accept(batch);
+            } catch (Exception e) {
+                log.error("Failed to process update batch", e);
+            }
+        });
+    }
+
+    private synchronized List<UpdateMessage> drain() {
+        List<UpdateMessage> batch = new ArrayList<>(pending.values());
+        pending.clear();
+        return batch;
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,193 @@
+package net.rolandbrt.patchsync.core;
+
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.network.UpdateMessage;
+import net.rolandbrt.patchsync.util.JsonUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Bounded inbox of accepted update notifications, backed by an append-only journal.
+ * Every accepted notification is appended ("+seq json") and flushed before it is acknowledged to the sender,
+ * and marked done ("-seq") once processed, so notifications still pending when the process dies are replayed on startup.
+ * The journal is rewritten to the pending notifications once enough were marked done, so it never grows unbounded.
+ */
+@Slf4j
+public class UpdateInbox {
+    private static final int COMPACT_THRESHOLD = 1024;
+    private final File journal;
+    private final int capacity;
+    private final int compactThreshold;
+    private final LinkedHashMap<Long, UpdateMessage> pending = new LinkedHashMap<>();
+    private FileChannel channel;
+    private long nextSeq = 1;
+    private int acked;
+
+    public UpdateInbox(File journal, int capacity) {
+        this(journal, capacity, COMPACT_THRESHOLD);
+    }
+
+    /**
+     * @param compactThreshold Number of done records after which the journal is compacted
+     */
+    UpdateInbox(File journal, int capacity, int compactThreshold) {
+        this.journal = journal;
+        this.capacity = Math.max(1, capacity);
+        this.compactThreshold = Math.max(1, compactThreshold);
+    }
+
+    /**
+     * Read the journal and open it for appending. The journal is compacted to the pending notifications.
+     *
+     * @return Notifications accepted before a restart that were never processed, oldest first
+     */
+    public synchronized List<UpdateMessage> open() throws IOException {
+        if (journal.exists()) {
+            try (BufferedReader reader = Files.newBufferedReader(journal.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    replay(line);
+                }
+            }
+        }
+        compact();
+        if (!pending.isEmpty())
+            log.info("Replaying {} pending update notifications from {}", pending.size(), journal);
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Durably accept a notification.
+     *
+     * @return false if the inbox is full and the notification was rejected
+     */
+    public synchronized boolean offer(UpdateMessage message) throws IOException {
+        if (pending.size() >= capacity) return false;
+        long seq = nextSeq++;
+        append(added(seq, message));
+        channel.force(false);
+        pending.put(seq, message);
+        return true;
+    }
+
+    /**
+     * Mark processed notifications as done, together with every older notification of the same repository
+     * they superseded.
+     *
+     * @param processed Notifications that were processed
+     */
+    public synchronized void ack(Collection<UpdateMessage> processed) {
+        try {
+            for (UpdateMessage message : processed) {
+                long seq = seqOf(message);
+                if (seq < 0) continue;
+                Iterator<Map.Entry<Long, UpdateMessage>> iterator = pending.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Long, UpdateMessage> entry = iterator.next();
+                    if (entry.getKey() > seq) break;
+                    if (!Objects.equals(entry.getValue().getRepoName(), message.getRepoName())) continue;
+                    iterator.remove();
+                    append("-" + entry.getKey() + "\n");
+                    acked++;
+                }
+            }
+            if (pending.isEmpty()) {
+                channel.truncate(0);
+                acked = 0;
+            } else if (acked >= compactThreshold) {
+                compact();
+            }
+        } catch (IOException e) {
+            log.error("Failed to write to {}, processed notifications may be replayed", journal, e);
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    public synchronized void close() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close {}", journal, e);
+        }
+    }
+
+    /**
+     * Rewrite the journal to the pending notifications. The new journal is written next to the old one and renamed
+     * over it, so a crash leaves either of them intact.
+     */
+    private void compact() throws IOException {
+        Path path = journal.toPath();
+        Path temp = path.resolveSibling(journal.getName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<Long, UpdateMessage> entry : pending.entrySet()) {
+                write(out, added(entry.getKey(), entry.getValue()));
+            }
+            out.force(false);
+        }
+        if (channel != null) channel.close();
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            acked = 0;
+        } finally {
+            // Keeps appending to the old journal if the rename failed
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private long seqOf(UpdateMessage message) {
+        for (Map.Entry<Long, UpdateMessage> entry : pending.entrySet()) {
+            if (entry.getValue() == message) return entry.getKey();
+        }
+        return -1;
+    }
+
+    private void replay(String line) {
+        try {
+            if (line.startsWith("+")) {
+                int space = line.indexOf(' ');
+                long seq = Long.parseLong(line.substring(1, space));
+                pending.put(seq, JsonUtils.fromJson(line.substring(space + 1), UpdateMessage.class));
+                nextSeq = Math.max(nextSeq, seq + 1);
+            } else if (line.startsWith("-")) {
+                pending.remove(Long.parseLong(line.substring(1).trim()));
+            }
+        } catch (Exception e) {
+            // A torn last line from a crash mid-write, the sender never got an answer for it
+            log.warn("Skipping unreadable journal line: {}", line);
+        }
+    }
+
+    private String added(long seq, UpdateMessage message) throws IOException {
+        try {
+            return "+" + seq + " " + JsonUtils.toJson(message) + "\n";
+        } catch (Exception e) {
+            throw new IOException("Failed to serialize update notification", e);
+        }
+    }
+
+    private void append(String record) throws IOException {
+        write(channel, record);
+    }
+
+    private static void write(FileChannel channel, String record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
\ No newline at end of file
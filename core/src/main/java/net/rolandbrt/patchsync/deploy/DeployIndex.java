@@ -0,0 +1,78 @@
+package net.rolandbrt.patchsync.deploy;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.util.JsonUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent record of what was last deployed for every (target, artifact) pair.
+ */
+@Slf4j
+public class DeployIndex {
+    private final File indexFile;
+    private final Map<String, Map<String, Entry>> targets = new ConcurrentHashMap<>();
+
+    private DeployIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public static DeployIndex load(File indexFile) {
+        DeployIndex index = new DeployIndex(indexFile);
+        if (!indexFile.exists()) return index;
+        try {
+            Stored stored = JsonUtils.fromJson(indexFile, Stored.class);
+            stored.getTargets().forEach((target, entries) ->
+                    index.targets.put(target, new ConcurrentHashMap<>(entries)));
+            log.info("Loaded deploy index with {} targets", index.targets.size());
+        } catch (Exception e) {
+            log.warn("Failed to read {}, every artifact will be redeployed", indexFile, e);
+        }
+        return index;
+    }
+
+    public Entry get(String target, String artifactKey) {
+        Map<String, Entry> entries = targets.get(target);
+        return entries == null ? null : entries.get(artifactKey);
+    }
+
+    public void put(String target, String artifactKey, Entry entry) {
+        targets.computeIfAbsent(target, k -> new ConcurrentHashMap<>()).put(artifactKey, entry);
+    }
+
+    public synchronized void save() {
+        Stored stored = new Stored();
+        targets.forEach((target, entries) -> stored.getTargets().put(target, new HashMap<>(entries)));
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try {
+            JsonUtils.toJson(temp, stored);
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            log.error("Failed to save {}", indexFile, e);
+        }
+    }
+
+    @Data
+    public static class Entry {
+        /**
+         * Size and modification time of the source file, used to skip hashing when it did not change.
+         */
+        private long size, modified;
+        /**
+         * Modification time of the deployed file, used to notice files replaced outside PatchSync.
+         */
+        private long targetModified;
+        private String digest;
+    }
+
+    @Data
+    private static class Stored {
+        private Map<String, Map<String, Entry>> targets = new HashMap<>();
+    }
+}
\ No newline at end of file
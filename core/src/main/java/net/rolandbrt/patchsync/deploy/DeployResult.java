@@ -0,0 +1,32 @@
+package net.rolandbrt.patchsync.deploy;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Outcome of a deploy across all targets.
+ */
+@Getter
+@AllArgsConstructor
+public class DeployResult {
+    private final List<TargetResult> targets;
+    private final long durationMillis;
+
+    public static DeployResult empty() {
+        return new DeployResult(List.of(), 0);
+    }
+
+    public int getDeployedCount() {
+        return targets.stream().mapToInt(target -> target.getDeployed().size()).sum();
+    }
+
+    public int getFailedCount() {
+        return targets.stream().mapToInt(target -> target.getFailed().size()).sum();
+    }
+
+    public boolean isSuccess() {
+        return targets.stream().allMatch(TargetResult::isSuccess);
+    }
+}
\ No newline at end of file
@@ -1,85 +1,424 @@
 package net.rolandbrt.patchsync.deploy;
 
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.rolandbrt.patchsync.configuration.TargetConfig;
 import net.rolandbrt.patchsync.data.Artifact;
+import net.rolandbrt.patchsync.metrics.Counter;
+import net.rolandbrt.patchsync.metrics.Metrics;
+import net.rolandbrt.patchsync.util.CopyStrategy;
 import net.rolandbrt.patchsync.util.FileUtils;
+import net.rolandbrt.patchsync.util.ThreadUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 @Slf4j
-@AllArgsConstructor
 public class DeploymentManager {
-    private final Map<String, TargetConfig> servers;
-    //private final SnapshotManager snapshotManager;
+    private volatile RoutingTable routing;
+    private final DeployIndex index;
+    private final ExecutorService executor;
+    private final ExecutorService callbacks;
+
+    public DeploymentManager(Map<String, TargetConfig> servers) {
+        this(servers, new File("deploy-index.json"));
+    }
+
+    public DeploymentManager(Map<String, TargetConfig> servers, File indexFile) {
+        this.routing = new RoutingTable(servers);
+        this.index = DeployIndex.load(indexFile);
+        this.executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        this.callbacks = Executors.newCachedThreadPool(ThreadUtils.named("deploy-callback"));
+    }
+
+    /**
+     * Replace the target configuration. Deploys already running finish with the previous one.
+     */
+    public void updateTargets(Map<String, TargetConfig> servers) {
+        this.routing = new RoutingTable(servers);
+        log.info("Updated routing for {} targets", servers.size());
+    }
+
+    /**
+     * Find the artifacts that differ from what was last deployed to at least one target.
+     *
+     * @param artifacts Candidate artifacts
+     * @return Artifacts that still need to be deployed
+     */
+    public List<Artifact> filterChanged(List<Artifact> artifacts) {
+        return filterChanged(artifacts, new HashMap<>());
+    }
+
+    /**
+     * Find the artifacts that differ from what was last deployed, see {@link #filterChanged(List)}.
+     *
+     * @param artifacts Candidate artifacts
+     * @param digests   Digests of artifact files by path, reused and filled, e.g. to be passed on to the deploy
+     * @return Artifacts that still need to be deployed
+     */
+    public List<Artifact> filterChanged(List<Artifact> artifacts, Map<Path, String> digests) {
+        RoutingTable routing = this.routing;
+        Set<Artifact> changed = new LinkedHashSet<>();
+        for (Artifact artifact : artifacts) {
+            for (String target : routing.targetsOf(artifact)) {
+                Path targetArtifactPath = Paths.get(routing.getTargets().get(target).getPath()).resolve(artifact.getFile().getName());
+                if (!isUnchanged(target, artifact, targetArtifactPath, digests)) {
+                    changed.add(artifact);
+                    break;
+                }
+            }
+        }
+        if (changed.size() < artifacts.size())
+            log.info("Skipping {} unchanged artifacts", artifacts.size() - changed.size());
+        return artifacts.stream().filter(changed::contains).toList();
+    }
+
+    /**
+     * Paths an artifact is deployed to, one per target configured to receive it.
+     */
+    public List<Path> targetPaths(Artifact artifact) {
+        RoutingTable routing = this.routing;
+        List<Path> paths = new ArrayList<>();
+        for (String target : routing.targetsOf(artifact)) {
+            paths.add(Paths.get(routing.getTargets().get(target).getPath()).resolve(artifact.getFile().getName()));
+        }
+        return paths;
+    }
+
+    /**
+     * Whether a target is configured to receive an artifact.
+     *
+     * @param target Target name
+     * @param name   Artifact name
+     * @param repo   Repository of the artifact
+     */
+    public boolean receives(String target, String name, String repo) {
+        return routing.targetsOf(name, repo).contains(target);
+    }
 
     /**
      * Deploy a list of artifacts to all targets that require them.
+     * Every artifact is first staged next to its destination for all targets concurrently, each target copying
+     * up to its configured parallelism of artifacts at once. Only then are staged files renamed into place,
+     * target by target, so live files are never seen half written.
+     * Artifacts identical to what a target already received are skipped.
+     *
+     * @param artifacts Artifacts to deploy
+     * @return Per target outcome
+     */
+    public DeployResult deploy(List<Artifact> artifacts) {
+        return deploy(artifacts, result -> {
+        });
+    }
+
+    /**
+     * Deploy a list of artifacts, see {@link #deploy(List)}.
+     *
+     * @param artifacts Artifacts to deploy
+     * @param onTarget  Called with the outcome of every target as soon as its artifacts were committed
+     * @return Per target outcome
+     */
+    public DeployResult deploy(List<Artifact> artifacts, Consumer<TargetResult> onTarget) {
+        return deploy(artifacts, target -> true, onTarget);
+    }
+
+    /**
+     * Deploy a list of artifacts to the selected targets only, see {@link #deploy(List)}.
      *
      * @param artifacts Artifacts to deploy
+     * @param targets   Selects the targets by name
+     * @param onTarget  Called with the outcome of every target as soon as its artifacts were committed
+     * @return Per target outcome
      */
-    public void deploy(List<Artifact> artifacts) {
+    public DeployResult deploy(List<Artifact> artifacts, Predicate<String> targets, Consumer<TargetResult> onTarget) {
+        return deploy(artifacts, targets, onTarget, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Deploy a list of artifacts to the selected targets only, see {@link #deploy(List)}.
+     *
+     * @param artifacts Artifacts to deploy
+     * @param targets   Selects the targets by name
+     * @param onTarget  Called with the outcome of every target as soon as its artifacts were committed
+     * @param digests   Digests of artifact files already computed (e.g. by the snapshot), reused and filled
+     *                  concurrently by the deploy workers
+     * @return Per target outcome
+     */
+    public DeployResult deploy(List<Artifact> artifacts, Predicate<String> targets, Consumer<TargetResult> onTarget,
+                               ConcurrentMap<Path, String> digests) {
         if (artifacts.isEmpty()) {
             log.warn("No artifacts to deploy");
-            return;
+            return DeployResult.empty();
         }
-        for (Map.Entry<String, TargetConfig> entry : servers.entrySet()) {
-            String targetName = entry.getKey();
-            TargetConfig targetConfig = entry.getValue();
+        RoutingTable routing = this.routing;
+        return deployRouted(routing, routing.route(artifacts, targets), Map.of(), onTarget, digests);
+    }
 
-            Path targetDir = Paths.get(targetConfig.getPath());
-            if (!Files.exists(targetDir)) {
-                try {
-                    Files.createDirectories(targetDir);
-                } catch (IOException e) {
-                    log.error("Failed to create artifact directory for target [{}]", targetName, e);
-                    continue;
+    /**
+     * Write files back to the given target paths, e.g. target files restored from a snapshot.
+     * Every path must be a file directly in the directory of a configured target, others are skipped.
+     * The content is staged straight into every target and skipped where the target already holds it.
+     *
+     * @param files    Content to write to every path
+     * @param targets  Selects the targets by name
+     * @param onTarget Called with the outcome of every target as soon as its artifacts were committed
+     * @return Per target outcome
+     */
+    public DeployResult restore(Map<Path, RestoredFile> files, Predicate<String> targets, Consumer<TargetResult> onTarget) {
+        RoutingTable routing = this.routing;
+        Map<String, List<Artifact>> routed = new LinkedHashMap<>();
+        Map<Artifact, RestoredFile> restored = new IdentityHashMap<>();
+        for (Map.Entry<Path, RestoredFile> file : files.entrySet()) {
+            String target = routing.targetAt(file.getKey().toAbsolutePath().getParent());
+            if (target == null) {
+                log.warn("No target is configured for {} anymore, skipping it", file.getKey());
+                continue;
+            }
+            if (!targets.test(target)) continue;
+            routed.computeIfAbsent(target, k -> new ArrayList<>()).add(file.getValue().getArtifact());
+            restored.put(file.getValue().getArtifact(), file.getValue());
+        }
+        return deployRouted(routing, routed, restored, onTarget, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @param restored Content of restored artifacts, staged instead of the artifact file
+     */
+    private DeployResult deployRouted(RoutingTable routing, Map<String, List<Artifact>> routed,
+                                      Map<Artifact, RestoredFile> restored, Consumer<TargetResult> onTarget,
+                                      ConcurrentMap<Path, String> digests) {
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<TargetResult>> futures = new ArrayList<>();
+        for (Map.Entry<String, List<Artifact>> entry : routed.entrySet()) {
+            // Every target is committed as soon as it is staged. Callbacks may block (e.g. synchronous plugin events),
+            // so they run on their own threads and never hold back the other targets
+            futures.add(stageTarget(entry.getKey(), routing.getTargets().get(entry.getKey()), entry.getValue(), restored, digests)
+                    .thenApplyAsync(stagedTarget -> {
+                        commitTarget(stagedTarget, digests);
+                        return stagedTarget.getResult();
+                    }, executor)
+                    .thenApplyAsync(targetResult -> {
+                        try {
+                            onTarget.accept(targetResult);
+                        } catch (Exception e) {
+                            log.error("Target callback failed for [{}]", targetResult.getTarget(), e);
+                        }
+                        return targetResult;
+                    }, callbacks));
+        }
+        List<TargetResult> results = futures.stream().map(CompletableFuture::join).toList();
+        index.save();
+        DeployResult result = new DeployResult(results, System.currentTimeMillis() - start);
+        Metrics.timer("deploy").record(result.getDurationMillis(), TimeUnit.MILLISECONDS);
+        log.info("Deployed {} artifacts to {} targets in {}ms ({} failed)",
+                result.getDeployedCount(), results.size(), result.getDurationMillis(), result.getFailedCount());
+        return result;
+    }
+
+    private CompletableFuture<StagedTarget> stageTarget(String targetName, TargetConfig targetConfig,
+                                                        List<Artifact> artifacts, Map<Artifact, RestoredFile> restored,
+                                                        Map<Path, String> digests) {
+        Path targetDir = Paths.get(targetConfig.getPath());
+        StagedTarget stagedTarget = new StagedTarget(new TargetResult(targetName, targetDir), System.currentTimeMillis());
+        if (!Files.exists(targetDir)) {
+            try {
+                Files.createDirectories(targetDir);
+            } catch (IOException e) {
+                log.error("Failed to create artifact directory for target [{}]", targetName, e);
+                stagedTarget.getResult().failedAll(artifacts);
+                stagedTarget.abort();
+                return CompletableFuture.completedFuture(stagedTarget);
+            }
+        }
+        // Split the artifacts into one slice per worker, each slice is staged sequentially
+        int workers = Math.max(1, Math.min(targetConfig.getParallelism(), artifacts.size()));
+        CompletableFuture<?>[] slices = new CompletableFuture<?>[workers];
+        for (int i = 0; i < workers; i++) {
+            List<Artifact> slice = new ArrayList<>();
+            for (int j = i; j < artifacts.size(); j += workers) {
+                slice.add(artifacts.get(j));
+            }
+            slices[i] = CompletableFuture.runAsync(() -> {
+                for (Artifact artifact : slice) {
+                    stageArtifact(targetDir, targetConfig.isHardLink(), artifact, restored.get(artifact), stagedTarget, digests);
                 }
+            }, executor);
+        }
+        return CompletableFuture.allOf(slices).handle((ignored, throwable) -> stagedTarget);
+    }
+
+    private void stageArtifact(Path targetDir, boolean hardLink, Artifact artifact, RestoredFile restored,
+                               StagedTarget stagedTarget, Map<Path, String> digests) {
+        TargetResult result = stagedTarget.getResult();
+        Path targetArtifactPath = targetDir.resolve(artifact.getFile().getName());
+        boolean unchanged = restored == null
+                ? isUnchanged(result.getTarget(), artifact, targetArtifactPath, digests)
+                : isUnchanged(result.getTarget(), restored, targetArtifactPath);
+        if (unchanged) {
+            result.skipped(artifact);
+            return;
+        }
+        Path stagedPath = null;
+        try {
+            // Stage artifact next to its destination, the live file is untouched until commit
+            stagedPath = FileUtils.createStagingFile(targetArtifactPath);
+            CopyStrategy strategy = restored == null
+                    ? FileUtils.stage(artifact.getFile().toPath(), stagedPath, hardLink)
+                    : restored.getContent().stage(stagedPath);
+            stagedTarget.add(artifact, restored, stagedPath, targetArtifactPath, strategy);
+        } catch (Exception e) {
+            if (stagedPath != null) discard(stagedPath);
+            result.failed(artifact);
+            stagedTarget.abort();
+            log.error("Failed to stage artifact [{}:{}] for target [{}]", artifact.getName(), artifact.getRepo(), result.getTarget(), e);
+        }
+    }
+
+    /**
+     * Rename every staged artifact of a target into place. A target with a failed staging is left untouched.
+     */
+    private void commitTarget(StagedTarget stagedTarget, Map<Path, String> digests) {
+        TargetResult result = stagedTarget.getResult();
+        if (stagedTarget.isAborted()) {
+            for (StagedTarget.Staged staged : stagedTarget.getStaged()) {
+                discard(staged.getStagedPath());
+                result.failed(staged.getArtifact());
             }
-            Map<String, List<String>> grouped = targetConfig.getArtifacts().stream()
-                    .map(entry1 -> entry1.split(":", 2))
-                    .collect(Collectors.groupingBy(parts -> parts[1],
-                            Collectors.mapping(parts -> parts[0], Collectors.toList())));
-            StringBuilder deployedArtifacts = new StringBuilder();
-            StringBuilder failedArtifacts = new StringBuilder();
-            for (Map.Entry<String, List<String>> repoEntry : grouped.entrySet()) {
-                String repoName = repoEntry.getKey();
-                List<String> repoArtifacts = repoEntry.getValue();
-                for (Artifact artifact : artifacts) {
-                    if (!artifact.getRepo().equalsIgnoreCase(repoName)) continue;
-                    if (!repoArtifacts.contains(artifact.getName())) continue;
-                    Path targetArtifactPath = targetDir.resolve(artifact.getFile().getName());
-                    try {
-                        // Backup existing artifact if it exists
-                        //if (Files.exists(targetArtifactPath)) {
-                        //    snapshotManager.snapshotFile(targetArtifactPath);
-                        //}
-                        // Copy artifact to target folder
-                        FileUtils.copy(artifact.getFile().toPath(), targetArtifactPath);
-                        if (!deployedArtifacts.isEmpty()) deployedArtifacts.append(", ");
-                        deployedArtifacts.append(artifact.getName()).append(":").append(repoName);
-                    } catch (IOException e) {
-                        if (!failedArtifacts.isEmpty()) failedArtifacts.append(", ");
-                        failedArtifacts.append(artifact.getName()).append(":").append(repoName);
-                        log.error("Failed to deploy artifact [{}:{}] to target [{}]", artifact.getName(), repoName, targetName, e);
+            log.warn("Staging failed for target [{}], no artifact was replaced", result.getTarget());
+        } else {
+            Counter copied = Metrics.counter("deploy_bytes_copied", "target", result.getTarget());
+            for (StagedTarget.Staged staged : stagedTarget.getStaged()) {
+                Artifact artifact = staged.getArtifact();
+                try {
+                    FileUtils.commit(staged.getStagedPath(), staged.getTargetPath());
+                    RestoredFile restored = staged.getRestored();
+                    if (restored == null) {
+                        record(result.getTarget(), artifact, staged.getTargetPath(), digests);
+                    } else {
+                        record(result.getTarget(), restored, staged.getTargetPath());
                     }
+                    result.deployed(artifact, staged.getStrategy());
+                    // Hard links share the source blocks, only transferred files cost I/O
+                    if (staged.getStrategy() == CopyStrategy.TRANSFER)
+                        copied.add(restored == null ? artifact.getFile().length() : restored.getSize());
+                } catch (Exception e) {
+                    discard(staged.getStagedPath());
+                    result.failed(artifact);
+                    log.error("Failed to deploy artifact [{}:{}] to target [{}]", artifact.getName(), artifact.getRepo(), result.getTarget(), e);
                 }
             }
-            if (!deployedArtifacts.isEmpty())
-                log.info("Deployed artifacts [{}] to target [{}]", deployedArtifacts, targetName);
-            if (!failedArtifacts.isEmpty())
-                log.info("Failed to deploy artifacts [{}] to target [{}]", failedArtifacts, targetName);
         }
+        result.finish(System.currentTimeMillis() - stagedTarget.getStart());
+        Metrics.timer("deploy_target", "target", result.getTarget()).record(result.getDurationMillis(), TimeUnit.MILLISECONDS);
+        Metrics.counter("deploy_artifacts_deployed", "target", result.getTarget()).add(result.getDeployed().size());
+        Metrics.counter("deploy_artifacts_skipped", "target", result.getTarget()).add(result.getSkipped().size());
+        Metrics.counter("deploy_artifacts_failed", "target", result.getTarget()).add(result.getFailed().size());
+        logResult(result);
+    }
+
+    private void discard(Path stagedPath) {
+        try {
+            FileUtils.delete(stagedPath);
+        } catch (IOException e) {
+            log.warn("Failed to delete staged file {}", stagedPath, e);
+        }
+    }
+
+    private void logResult(TargetResult result) {
+        if (!result.getDeployed().isEmpty())
+            log.info("Deployed artifacts [{}] to target [{}] in {}ms ({} hard linked, {} unchanged)",
+                    describe(result.getDeployed()), result.getTarget(), result.getDurationMillis(),
+                    result.getLinked(), result.getSkipped().size());
+        if (!result.getFailed().isEmpty())
+            log.info("Failed to deploy artifacts [{}] to target [{}]", describe(result.getFailed()), result.getTarget());
+    }
+
+    private static String describe(List<Artifact> artifacts) {
+        return artifacts.stream().map(DeploymentManager::key).collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Check an artifact against the index. The source is only hashed when its size or modification time changed.
+     */
+    private boolean isUnchanged(String targetName, Artifact artifact, Path targetArtifactPath, Map<Path, String> digests) {
+        DeployIndex.Entry entry = index.get(targetName, key(artifact));
+        if (entry == null) return false;
+        Path source = artifact.getFile().toPath();
+        try {
+            if (!Files.exists(targetArtifactPath)
+                    || Files.size(targetArtifactPath) != entry.getSize()
+                    || Files.getLastModifiedTime(targetArtifactPath).toMillis() != entry.getTargetModified()) {
+                return false;
+            }
+            long size = Files.size(source), modified = Files.getLastModifiedTime(source).toMillis();
+            if (size == entry.getSize() && modified == entry.getModified()) {
+                return true;
+            }
+            if (size != entry.getSize() || !FileUtils.digest(source, digests).equals(entry.getDigest())) {
+                return false;
+            }
+            // Same content with a new timestamp (e.g. fresh checkout), remember it to skip hashing next time
+            entry.setModified(modified);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check restored content against the index, it has no source file so only its digest can be compared.
+     */
+    private boolean isUnchanged(String targetName, RestoredFile restored, Path targetArtifactPath) {
+        DeployIndex.Entry entry = index.get(targetName, key(restored.getArtifact()));
+        if (entry == null) return false;
+        try {
+            return Files.exists(targetArtifactPath)
+                    && Files.size(targetArtifactPath) == restored.getSize()
+                    && Files.getLastModifiedTime(targetArtifactPath).toMillis() == entry.getTargetModified()
+                    && restored.getDigest().equals(entry.getDigest());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void record(String targetName, Artifact artifact, Path targetArtifactPath, Map<Path, String> digests) throws IOException {
+        Path source = artifact.getFile().toPath();
+        DeployIndex.Entry entry = new DeployIndex.Entry();
+        entry.setSize(Files.size(source));
+        entry.setModified(Files.getLastModifiedTime(source).toMillis());
+        entry.setTargetModified(Files.getLastModifiedTime(targetArtifactPath).toMillis());
+        entry.setDigest(FileUtils.digest(source, digests));
+        index.put(targetName, key(artifact), entry);
+    }
+
+    private void record(String targetName, RestoredFile restored, Path targetArtifactPath) throws IOException {
+        DeployIndex.Entry entry = new DeployIndex.Entry();
+        entry.setSize(restored.getSize());
+        // No source timestamp, the next deploy of the artifact compares digests
+        entry.setTargetModified(Files.getLastModifiedTime(targetArtifactPath).toMillis());
+        entry.setDigest(restored.getDigest());
+        index.put(targetName, key(restored.getArtifact()), entry);
+    }
+
+    private static String key(Artifact artifact) {
+        return artifact.getName() + ":" + artifact.getRepo();
     }
 
     public void close() {
-        servers.clear();
+        executor.shutdown();
+        callbacks.shutdown();
+        routing = new RoutingTable(Map.of());
     }
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+package net.rolandbrt.patchsync.deploy;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import net.rolandbrt.patchsync.data.Artifact;
+import net.rolandbrt.patchsync.util.CopyStrategy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Content written back to target files, e.g. by a rollback. It is staged straight from where it is kept
+ * instead of being copied out to a source file first.
+ */
+@Getter
+@AllArgsConstructor
+public class RestoredFile {
+    /**
+     * Artifact reported in results and events, its file is named like the restored paths
+     */
+    private final Artifact artifact;
+    private final String digest;
+    private final long size;
+    private final Content content;
+
+    @FunctionalInterface
+    public interface Content {
+        /**
+         * Write the content to a staged file, replacing it if it exists.
+         *
+         * @return How the staged file was written
+         */
+        CopyStrategy stage(Path staged) throws IOException;
+    }
+}
\ No newline at end of file
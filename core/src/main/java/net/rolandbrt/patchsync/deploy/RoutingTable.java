@@ -0,0 +1,80 @@
+package net.rolandbrt.patchsync.deploy;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.configuration.TargetConfig;
+import net.rolandbrt.patchsync.data.Artifact;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Targets receiving every artifact, indexed by "name:repo" (repository names are case-insensitive).
+ * Built once per target configuration, so routing a deploy is a single lookup per artifact.
+ */
+@Slf4j
+class RoutingTable {
+    @Getter
+    private final Map<String, TargetConfig> targets;
+    private final Map<String, List<String>> routes = new HashMap<>();
+    private final Map<Path, String> targetsByDir = new HashMap<>();
+
+    RoutingTable(Map<String, TargetConfig> targets) {
+        this.targets = Collections.unmodifiableMap(new LinkedHashMap<>(targets));
+        for (Map.Entry<String, TargetConfig> target : this.targets.entrySet()) {
+            TargetConfig targetConfig = target.getValue();
+            targetsByDir.put(Paths.get(targetConfig.getPath()).toAbsolutePath().normalize(), target.getKey());
+            if (targetConfig.getArtifacts() == null) continue;
+            for (String entry : targetConfig.getArtifacts()) {
+                String[] parts = entry.split(":", 2);
+                if (parts.length < 2) {
+                    log.warn("Ignoring artifact [{}] of target [{}], expected name:repo", entry, target.getKey());
+                    continue;
+                }
+                List<String> names = routes.computeIfAbsent(key(parts[0], parts[1]), k -> new ArrayList<>());
+                if (!names.contains(target.getKey())) names.add(target.getKey());
+            }
+        }
+        log.debug("Routing {} artifacts to {} targets", routes.size(), targets.size());
+    }
+
+    static String key(String name, String repo) {
+        return name + ":" + repo.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Names of the targets receiving an artifact.
+     */
+    List<String> targetsOf(String name, String repo) {
+        if (name == null || repo == null) return List.of();
+        return routes.getOrDefault(key(name, repo), List.of());
+    }
+
+    List<String> targetsOf(Artifact artifact) {
+        return targetsOf(artifact.getName(), artifact.getRepo());
+    }
+
+    /**
+     * Group artifacts by the selected targets receiving them, in a single pass.
+     */
+    Map<String, List<Artifact>> route(List<Artifact> artifacts, Predicate<String> selected) {
+        Map<String, List<Artifact>> routed = new LinkedHashMap<>();
+        for (Artifact artifact : artifacts) {
+            for (String target : targetsOf(artifact)) {
+                if (selected.test(target)) {
+                    routed.computeIfAbsent(target, k -> new ArrayList<>()).add(artifact);
+                }
+            }
+        }
+        return routed;
+    }
+
+    /**
+     * Name of the target deploying into a directory, or null if none does.
+     */
+    String targetAt(Path dir) {
+        return targetsByDir.get(dir.toAbsolutePath().normalize());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,46 @@
+package net.rolandbrt.patchsync.deploy;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import net.rolandbrt.patchsync.data.Artifact;
+import net.rolandbrt.patchsync.util.CopyStrategy;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Artifacts of a target written next to their destination and waiting to be renamed into place.
+ */
+@Getter
+class StagedTarget {
+    private final TargetResult result;
+    private final long start;
+    private final List<Staged> staged = new ArrayList<>();
+    private boolean aborted;
+
+    StagedTarget(TargetResult result, long start) {
+        this.result = result;
+        this.start = start;
+    }
+
+    synchronized void add(Artifact artifact, RestoredFile restored, Path stagedPath, Path targetPath, CopyStrategy strategy) {
+        staged.add(new Staged(artifact, restored, stagedPath, targetPath, strategy));
+    }
+
+    synchronized void abort() {
+        aborted = true;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    static class Staged {
+        private final Artifact artifact;
+        /**
+         * Content staged instead of the artifact file, null for deployed artifacts
+         */
+        private final RestoredFile restored;
+        private final Path stagedPath, targetPath;
+        private final CopyStrategy strategy;
+    }
+}
\ No newline at end of file
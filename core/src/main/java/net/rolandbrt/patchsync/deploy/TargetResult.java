@@ -0,0 +1,53 @@
+package net.rolandbrt.patchsync.deploy;
+
+import lombok.Getter;
+import net.rolandbrt.patchsync.data.Artifact;
+import net.rolandbrt.patchsync.util.CopyStrategy;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a deploy for a single target. Filled concurrently by the artifact workers of the target.
+ */
+@Getter
+public class TargetResult {
+    private final String target;
+    private final Path path;
+    private final List<Artifact> deployed = new ArrayList<>();
+    private final List<Artifact> skipped = new ArrayList<>();
+    private final List<Artifact> failed = new ArrayList<>();
+    private int linked;
+    private long durationMillis;
+
+    public TargetResult(String target, Path path) {
+        this.target = target;
+        this.path = path;
+    }
+
+    synchronized void deployed(Artifact artifact, CopyStrategy strategy) {
+        deployed.add(artifact);
+        if (strategy == CopyStrategy.HARD_LINK) linked++;
+    }
+
+    synchronized void skipped(Artifact artifact) {
+        skipped.add(artifact);
+    }
+
+    synchronized void failed(Artifact artifact) {
+        failed.add(artifact);
+    }
+
+    synchronized void failedAll(List<Artifact> artifacts) {
+        failed.addAll(artifacts);
+    }
+
+    void finish(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    public boolean isSuccess() {
+        return failed.isEmpty();
+    }
+}
\ No newline at end of file
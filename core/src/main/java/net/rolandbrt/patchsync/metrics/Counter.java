@@ -0,0 +1,22 @@
+package net.rolandbrt.patchsync.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic count, e.g. of copied bytes or skipped artifacts.
+ */
+public class Counter {
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        if (amount > 0) value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+package net.rolandbrt.patchsync.metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process wide timers, counters and gauges of the sync pipeline, created on first use.
+ * Labels are given as key, value pairs, e.g. {@code Metrics.timer("git_fetch", "repo", name)}.
+ */
+public final class Metrics {
+    private static final String PREFIX = "patchsync_";
+    private static final Map<Key, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<Key, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<Key, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Timer timer(String name, String... labels) {
+        return timers.computeIfAbsent(new Key(name, labels(labels)), key -> new Timer());
+    }
+
+    public static Counter counter(String name, String... labels) {
+        return counters.computeIfAbsent(new Key(name, labels(labels)), key -> new Counter());
+    }
+
+    /**
+     * Register a gauge, replacing an earlier one of the same name and labels. The value is read on every scrape.
+     */
+    public static void gauge(String name, DoubleSupplier value, String... labels) {
+        gauges.put(new Key(name, labels(labels)), value);
+    }
+
+    public static Map<String, Timer> getTimers() {
+        return sorted(timers);
+    }
+
+    public static Map<String, Counter> getCounters() {
+        return sorted(counters);
+    }
+
+    public static Map<String, Double> getGauges() {
+        Map<String, Double> values = new TreeMap<>();
+        gauges.forEach((key, gauge) -> values.put(key.toString(), read(gauge)));
+        return values;
+    }
+
+    /**
+     * Every metric in the Prometheus text exposition format, timers as summaries in seconds plus a gauge of their maximum.
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        Set<String> declared = new HashSet<>();
+        Map<Key, Timer> sortedTimers = new TreeMap<>(timers);
+        for (Map.Entry<Key, Timer> entry : sortedTimers.entrySet()) {
+            String name = PREFIX + entry.getKey().name() + "_seconds";
+            type(out, declared, name, "summary");
+            line(out, name + "_count", entry.getKey().labels(), entry.getValue().getCount());
+            line(out, name + "_sum", entry.getKey().labels(), entry.getValue().getTotalNanos() / 1e9);
+        }
+        // The maximum is not part of a summary, it is exposed as a gauge of its own
+        for (Map.Entry<Key, Timer> entry : sortedTimers.entrySet()) {
+            String name = PREFIX + entry.getKey().name() + "_seconds_max";
+            type(out, declared, name, "gauge");
+            line(out, name, entry.getKey().labels(), entry.getValue().getMaxNanos() / 1e9);
+        }
+        for (Map.Entry<Key, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            String name = PREFIX + entry.getKey().name() + "_total";
+            type(out, declared, name, "counter");
+            line(out, name, entry.getKey().labels(), entry.getValue().get());
+        }
+        for (Map.Entry<Key, DoubleSupplier> entry : new TreeMap<>(gauges).entrySet()) {
+            String name = PREFIX + entry.getKey().name();
+            type(out, declared, name, "gauge");
+            line(out, name, entry.getKey().labels(), read(entry.getValue()));
+        }
+        return out.toString();
+    }
+
+    private static void type(StringBuilder out, Set<String> declared, String name, String type) {
+        // Entries are sorted, so all series of a metric follow each other and only the first declares the type
+        if (declared.add(name)) {
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+    }
+
+    private static void line(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static double read(DoubleSupplier gauge) {
+        try {
+            return gauge.getAsDouble();
+        } catch (RuntimeException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static String labels(String... labels) {
+        if (labels.length == 0) return "";
+        if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be key, value pairs");
+        StringBuilder out = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) out.append(',');
+            String value = Objects.toString(labels[i + 1]).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+            out.append(labels[i]).append("=\"").append(value).append('"');
+        }
+        return out.append('}').toString();
+    }
+
+    private static <T> Map<String, T> sorted(Map<Key, T> metrics) {
+        Map<String, T> sorted = new TreeMap<>();
+        metrics.forEach((key, metric) -> sorted.put(key.toString(), metric));
+        return sorted;
+    }
+
+    private record Key(String name, String labels) implements Comparable<Key> {
+        @Override
+        public int compareTo(Key other) {
+            int byName = name.compareTo(other.name);
+            return byName != 0 ? byName : labels.compareTo(other.labels);
+        }
+
+        @Override
+        public String toString() {
+            return name + labels;
+        }
+    }
+}
\ No newline at end of file
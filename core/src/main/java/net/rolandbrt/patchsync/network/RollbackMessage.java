@@ -1,18 +1,27 @@
 package net.rolandbrt.patchsync.network;
 
-import lombok.AllArgsConstructor;
+import lombok.Builder;
 import lombok.Getter;
 import net.rolandbrt.patchsync.data.Artifact;
 
 import java.util.List;
 
+/**
+ * Rollback request. Without a repository, artifact or target the whole snapshot is restored everywhere,
+ * otherwise only the matching artifacts are restored, to the matching targets.
+ */
 @Getter
-@AllArgsConstructor
+@Builder
 public class RollbackMessage {
     private final String snapshotId;
     private final String repoName;
     private final String artifactName;
+    private final String targetName;
     private final String branch;
     private final List<Artifact> restored;
     private final String reason;
+
+    public boolean isPartial() {
+        return repoName != null || artifactName != null || targetName != null;
+    }
 }
\ No newline at end of file
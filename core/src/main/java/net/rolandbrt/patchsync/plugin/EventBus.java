@@ -0,0 +1,226 @@
+package net.rolandbrt.patchsync.plugin;
+
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.api.Delivery;
+import net.rolandbrt.patchsync.api.Event;
+import net.rolandbrt.patchsync.api.Plugin;
+import net.rolandbrt.patchsync.api.Subscription;
+import net.rolandbrt.patchsync.api.SyncPlugin;
+import net.rolandbrt.patchsync.configuration.PluginConfig;
+import net.rolandbrt.patchsync.metrics.Metrics;
+import net.rolandbrt.patchsync.util.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Delivers events to plugins, every plugin on its own bounded pool so a hung plugin never delays the others.
+ * Every handler runs isolated from the pipeline: exceptions are logged, handlers exceeding the timeout are interrupted,
+ * and a plugin with too many events in flight (e.g. hung) stops receiving new ones until it catches up.
+ * The handlers of every event type are resolved once per type and reused until the registered plugins change.
+ */
+@Slf4j
+public class EventBus {
+    private final int threads;
+    private final Map<Plugin, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(ThreadUtils.named("event-watchdog"));
+    private final long timeoutMillis;
+    private final int maxPendingEvents;
+    private final Map<Plugin, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Class<?>, List<Listener>> dispatchTable = new ConcurrentHashMap<>();
+
+    public EventBus(PluginConfig config) {
+        this.threads = Math.max(1, config.getEventThreads());
+        this.timeoutMillis = Math.max(1, config.getEventTimeoutMillis());
+        this.maxPendingEvents = Math.max(1, config.getMaxPendingEvents());
+    }
+
+    /**
+     * Register the handlers of a plugin: its subscriptions, and every event if it overrides {@link Plugin#onEvent}.
+     */
+    public void register(Plugin plugin) {
+        executors.computeIfAbsent(plugin, this::newExecutor);
+        for (Subscription<?> subscription : plugin.getSubscriptions()) {
+            listeners.add(new Listener(plugin, subscription.getType(), subscription::handle));
+        }
+        if (handlesAll(plugin)) {
+            listeners.add(new Listener(plugin, Event.class, plugin::onEvent));
+        }
+        dispatchTable.clear();
+    }
+
+    /**
+     * Remove the handlers and in-flight state of an unloaded plugin. Queued events are cancelled and running ones
+     * get up to the event timeout before they are interrupted, so the plugin's class loader can be closed afterwards.
+     */
+    public void unregister(Plugin plugin) {
+        listeners.removeIf(listener -> listener.plugin() == plugin);
+        dispatchTable.clear();
+        ThreadPoolExecutor executor = executors.remove(plugin);
+        if (executor != null) {
+            executor.shutdown();
+            List<Runnable> queued = new ArrayList<>();
+            executor.getQueue().drainTo(queued);
+            queued.forEach(task -> ((Future<?>) task).cancel(false));
+            try {
+                if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    executor.shutdownNow();
+                    log.warn("Plugin {} did not finish its events within {}ms, interrupted them", plugin.getName(), timeoutMillis);
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        inFlight.remove(plugin);
+    }
+
+    /**
+     * Deliver an event to every plugin handling its type, in parallel.
+     * Returns once every {@link Delivery#SYNC} plugin handled it or timed out, asynchronous plugins are not waited for.
+     *
+     * @param event Event to deliver
+     */
+    public void dispatch(Event event) {
+        List<Listener> targets = dispatchTable.computeIfAbsent(event.getClass(), this::resolve);
+        if (targets.isEmpty()) return;
+        long start = System.nanoTime();
+        List<Pending> sync = new ArrayList<>();
+        for (Listener listener : targets) {
+            Plugin plugin = listener.plugin();
+            Future<?> future = submit(event, listener);
+            if (future == null) continue;
+            if (plugin.getDelivery() == Delivery.SYNC) {
+                sync.add(new Pending(plugin, future));
+            } else {
+                watchdog.schedule(() -> {
+                    if (!future.cancel(true)) return;
+                    Metrics.counter("plugin_events_timed_out", "plugin", plugin.getName()).increment();
+                    log.warn("Plugin {} did not handle {} within {}ms", plugin.getName(), eventName(event), timeoutMillis);
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        // Handlers run in parallel, so they all share one deadline
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Pending pending : sync) {
+            try {
+                pending.future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                pending.future.cancel(true);
+                Metrics.counter("plugin_events_timed_out", "plugin", pending.plugin.getName()).increment();
+                log.warn("Plugin {} did not handle {} within {}ms", pending.plugin.getName(), eventName(event), timeoutMillis);
+            } catch (ExecutionException | CancellationException e) {
+                // Already logged by the handler task
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        Metrics.timer("event_dispatch", "event", eventName(event)).recordSince(start);
+    }
+
+    private List<Listener> resolve(Class<?> eventType) {
+        return listeners.stream().filter(listener -> listener.type().isAssignableFrom(eventType)).toList();
+    }
+
+    /**
+     * Plugins extending {@link SyncPlugin} without overriding onEvent only receive what they subscribed to.
+     */
+    private static boolean handlesAll(Plugin plugin) {
+        try {
+            return plugin.getClass().getMethod("onEvent", Event.class).getDeclaringClass() != SyncPlugin.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
+    private ThreadPoolExecutor newExecutor(Plugin plugin) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), ThreadUtils.named("event-" + plugin.getName()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private Future<?> submit(Event event, Listener listener) {
+        Plugin plugin = listener.plugin();
+        ThreadPoolExecutor executor = executors.get(plugin);
+        if (executor == null) return null;
+        AtomicInteger counter = inFlight.computeIfAbsent(plugin, p -> new AtomicInteger());
+        if (counter.incrementAndGet() > maxPendingEvents) {
+            counter.decrementAndGet();
+            Metrics.counter("plugin_events_dropped", "plugin", plugin.getName()).increment();
+            log.warn("Plugin {} has {} events in flight, dropping {}", plugin.getName(), maxPendingEvents, eventName(event));
+            return null;
+        }
+        AtomicBoolean started = new AtomicBoolean(), released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) counter.decrementAndGet();
+        };
+        long queued = System.nanoTime();
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            started.set(true);
+            long start = System.nanoTime();
+            Metrics.timer("plugin_queue_wait", "plugin", plugin.getName()).record(start - queued);
+            try {
+                listener.handler().accept(event);
+            } catch (Throwable t) {
+                Metrics.counter("plugin_events_failed", "plugin", plugin.getName()).increment();
+                log.error("Plugin {} failed to handle {}", plugin.getName(), eventName(event), t);
+            } finally {
+                release.run();
+                Metrics.timer("plugin_handle", "plugin", plugin.getName()).recordSince(start);
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                // Cancelled while still queued, the handler never runs and the event is no longer in flight
+                if (isCancelled() && !started.get()) {
+                    executor.remove(this);
+                    release.run();
+                }
+            }
+        };
+        try {
+            executor.execute(task);
+            return task;
+        } catch (RejectedExecutionException e) {
+            release.run();
+            log.warn("Event bus is closed, {} not delivered to {}", eventName(event), plugin.getName());
+            return null;
+        }
+    }
+
+    public void close() {
+        watchdog.shutdownNow();
+        executors.values().forEach(ExecutorService::shutdown);
+        // Plugins finish their events in parallel, so they all share one deadline
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            for (ExecutorService executor : executors.values()) {
+                if (!executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            executors.values().forEach(ExecutorService::shutdownNow);
+            Thread.currentThread().interrupt();
+        }
+        executors.clear();
+    }
+
+    private static String eventName(Event event) {
+        return event.getClass().getSimpleName();
+    }
+
+    private record Listener(Plugin plugin, Class<?> type, Consumer<Event> handler) {
+    }
+
+    private record Pending(Plugin plugin, Future<?> future) {
+    }
+}
\ No newline at end of file
@@ -0,0 +1,74 @@
+package net.rolandbrt.patchsync.plugin;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.api.Event;
+import net.rolandbrt.patchsync.api.Plugin;
+
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A plugin jar and, once activated, its instance and class loader.
+ * The class loader stays open for as long as the plugin is loaded, so classes can still be loaded lazily.
+ */
+@Slf4j
+@Getter
+public class LoadedPlugin {
+    private final Path jar;
+    private final PluginMetadata metadata;
+    private final long jarSize, jarModified;
+    private URLClassLoader loader;
+    private Plugin plugin;
+    private long loadMillis;
+
+    LoadedPlugin(Path jar, PluginMetadata metadata) {
+        this.jar = jar;
+        this.metadata = metadata;
+        this.jarSize = jar.toFile().length();
+        this.jarModified = jar.toFile().lastModified();
+    }
+
+    void activated(URLClassLoader loader, Plugin plugin, long loadMillis) {
+        this.loader = loader;
+        this.plugin = plugin;
+        this.loadMillis = loadMillis;
+    }
+
+    public boolean isActive() {
+        return plugin != null;
+    }
+
+    /**
+     * Whether the jar was replaced or removed since it was read.
+     */
+    boolean isStale() {
+        return !Files.exists(jar) || jar.toFile().length() != jarSize || jar.toFile().lastModified() != jarModified;
+    }
+
+    /**
+     * Whether a lazy plugin must be activated to receive an event,
+     * matching the simple or full class name of the event or one of its superclasses.
+     */
+    boolean activatesOn(Event event) {
+        for (Class<?> type = event.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+            if (metadata.getActivateOn().contains(type.getSimpleName()) || metadata.getActivateOn().contains(type.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void close() {
+        if (loader == null) return;
+        try {
+            loader.close();
+        } catch (IOException e) {
+            log.warn("Failed to close class loader of plugin {}", jar.getFileName(), e);
+        }
+        loader = null;
+        plugin = null;
+    }
+}
\ No newline at end of file
@@ -5,73 +5,290 @@ import lombok.extern.slf4j.Slf4j;
 import net.rolandbrt.patchsync.api.Event;
 import net.rolandbrt.patchsync.api.Plugin;
 import net.rolandbrt.patchsync.api.SyncPlugin;
+import net.rolandbrt.patchsync.configuration.PluginConfig;
+import net.rolandbrt.patchsync.util.DirectoryWatcher;
 import net.rolandbrt.patchsync.util.JsonUtils;
+import net.rolandbrt.patchsync.util.ThreadUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 @Slf4j
 public class PluginManager {
-    private final List<Plugin> plugins = new CopyOnWriteArrayList<>();
+    private final List<LoadedPlugin> plugins = new CopyOnWriteArrayList<>();
     @Getter
     private static final File pluginsDir = new File("plugins");
+    private EventBus eventBus;
+    private DirectoryWatcher watcher;
 
-    public void load() {
+    /**
+     * Load every plugin jar in the plugins directory. Jars are read and their plugins initialized concurrently,
+     * plugins declaring {@code activateOn} in their plugin.json are only loaded once a matching event is fired.
+     */
+    public synchronized void load(PluginConfig config) {
+        eventBus = new EventBus(config);
         if (!pluginsDir.exists()) {
             pluginsDir.mkdirs();
         }
+        loadAll(config);
+        if (config.isWatch()) {
+            // Watch only once the initial plugins are registered, so a reload never installs them a second time.
+            // Reload once jar changes settled, so a jar still being copied is not loaded half written
+            try {
+                watcher = new DirectoryWatcher(pluginsDir.toPath(), file -> file.toString().endsWith(".jar"),
+                        config.getReloadDelayMillis(), "plugin-watcher", this::reload);
+            } catch (IOException e) {
+                log.warn("Failed to watch the plugins directory, plugins are only reloaded on command", e);
+            }
+        }
+    }
+
+    private void loadAll(PluginConfig config) {
         log.info("Loading plugins...");
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(pluginsDir.toPath(), "*.jar")) {
-            for (Path jarFile : stream) {
-                try (URLClassLoader loader = new URLClassLoader(new URL[]{jarFile.toUri().toURL()}, getClass().getClassLoader())) {
-                    // Load plugin.json from the JAR
-                    InputStream is = loader.getResourceAsStream("plugin.json");
-                    if (is == null) {
-                        System.out.println("No plugin.json found in " + jarFile.getFileName());
-                        continue;
-                    }
-                    PluginMetadata metadata = JsonUtils.fromJson(is, PluginMetadata.class);
-
-                    Class<?> clazz = loader.loadClass(metadata.getMainClass());
-                    Object instance = clazz.getDeclaredConstructor().newInstance();
-
-                    if (instance instanceof SyncPlugin plugin) {
-                        plugin.setLogger(new PluginLogger(plugin));
-                        plugins.add(plugin);
-                        log.info("Loaded plugin: {} v{} by {}", plugin.getName(), metadata.getVersion(), metadata.getAuthor());
-                        plugin.onLoad();
-                    }
-                } catch (Exception e) {
-                    log.error("Exception loading plugin {}", jarFile.getFileName(), e);
+        long start = System.currentTimeMillis();
+        List<Path> jars;
+        try {
+            jars = listJars();
+        } catch (IOException e) {
+            log.error("Plugin load exception", e);
+            return;
+        }
+        if (jars.isEmpty()) return;
+
+        ExecutorService loaders = Executors.newFixedThreadPool(Math.max(1, Math.min(config.getLoadThreads(), jars.size())),
+                ThreadUtils.named("plugin-load"));
+        try {
+            List<CompletableFuture<LoadedPlugin>> futures = jars.stream()
+                    .map(jar -> CompletableFuture.supplyAsync(() -> prepare(jar), loaders))
+                    .toList();
+            // Register in jar order, so event delivery order does not depend on load timing
+            int active = 0, lazy = 0;
+            for (CompletableFuture<LoadedPlugin> future : futures) {
+                LoadedPlugin loaded = future.join();
+                if (loaded == null) continue;
+                plugins.add(loaded);
+                if (loaded.isActive()) {
+                    eventBus.register(loaded.getPlugin());
+                    active++;
+                } else {
+                    lazy++;
                 }
             }
+            log.info("Loaded {} plugins in {}ms ({} deferred until needed)", active, System.currentTimeMillis() - start, lazy);
+        } finally {
+            loaders.shutdown();
+        }
+    }
+
+    /**
+     * Bring loaded plugins in line with the plugins directory while the rest of the application keeps running:
+     * plugins whose jar was removed or replaced are unloaded (closing their class loader), new and replaced
+     * jars are loaded.
+     *
+     * @return Number of plugins unloaded or loaded
+     */
+    public synchronized int reload() {
+        List<Path> jars;
+        try {
+            jars = listJars();
+        } catch (IOException e) {
+            log.error("Failed to list plugins", e);
+            return 0;
+        }
+        int changes = 0;
+        for (LoadedPlugin loaded : plugins) {
+            if (loaded.isStale()) {
+                log.info("Unloading plugin {} ({} changed)", loaded.getMetadata().getName(), loaded.getJar().getFileName());
+                unload(loaded);
+                changes++;
+            }
+        }
+        for (Path jar : jars) {
+            if (plugins.stream().anyMatch(loaded -> loaded.getJar().equals(jar))) continue;
+            if (install(jar)) changes++;
+        }
+        if (changes == 0) log.info("Plugins are up to date");
+        return changes;
+    }
+
+    /**
+     * Unload and load a single plugin again, even if its jar did not change.
+     *
+     * @param name Plugin name or jar file name
+     * @return Whether a plugin with this name was found
+     */
+    public synchronized boolean reload(String name) {
+        for (LoadedPlugin loaded : plugins) {
+            if (!name.equalsIgnoreCase(loaded.getMetadata().getName())
+                    && !name.equalsIgnoreCase(loaded.getJar().getFileName().toString())) continue;
+            unload(loaded);
+            if (Files.exists(loaded.getJar())) install(loaded.getJar());
+            return true;
+        }
+        return false;
+    }
+
+    private boolean install(Path jar) {
+        LoadedPlugin loaded = prepare(jar);
+        if (loaded == null) return false;
+        plugins.add(loaded);
+        if (loaded.isActive()) eventBus.register(loaded.getPlugin());
+        return true;
+    }
+
+    private static List<Path> listJars() throws IOException {
+        List<Path> jars = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(pluginsDir.toPath(), "*.jar")) {
+            stream.forEach(jars::add);
+        }
+        jars.sort(null);
+        return jars;
+    }
+
+    /**
+     * Read the metadata of a jar and activate it unless it is lazy.
+     *
+     * @return The plugin, or null if the jar is not a valid plugin
+     */
+    private LoadedPlugin prepare(Path jar) {
+        PluginMetadata metadata;
+        try {
+            metadata = readMetadata(jar);
         } catch (Exception e) {
-            log.error("Plugin load exception", e);
+            log.error("Exception loading plugin {}", jar.getFileName(), e);
+            return null;
         }
+        if (metadata == null) {
+            log.warn("No plugin.json found in {}", jar.getFileName());
+            return null;
+        }
+        LoadedPlugin loaded = new LoadedPlugin(jar, metadata);
+        if (metadata.isLazy()) {
+            log.info("Deferred plugin {} until {}", metadata.getName(), metadata.getActivateOn());
+            return loaded;
+        }
+        return activate(loaded) ? loaded : null;
     }
 
-    public void unload(Plugin plugin) {
-        plugins.remove(plugin);
-        plugin.onUnload();
+    private static PluginMetadata readMetadata(Path jar) throws Exception {
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            ZipEntry entry = zip.getEntry("plugin.json");
+            if (entry == null) return null;
+            try (InputStream is = zip.getInputStream(entry)) {
+                return JsonUtils.fromJson(is, PluginMetadata.class);
+            }
+        }
+    }
+
+    /**
+     * Create the class loader of a plugin, instantiate it and call onLoad. The class loader stays open until unload.
+     */
+    private boolean activate(LoadedPlugin loaded) {
+        long start = System.currentTimeMillis();
+        PluginMetadata metadata = loaded.getMetadata();
+        URLClassLoader loader = null;
+        try {
+            loader = new URLClassLoader(new URL[]{loaded.getJar().toUri().toURL()}, getClass().getClassLoader());
+            Class<?> clazz = loader.loadClass(metadata.getMainClass());
+            Object instance = clazz.getDeclaredConstructor().newInstance();
+            if (!(instance instanceof SyncPlugin plugin)) {
+                log.warn("Main class {} of {} is not a SyncPlugin", metadata.getMainClass(), loaded.getJar().getFileName());
+                loader.close();
+                return false;
+            }
+            plugin.setLogger(new PluginLogger(plugin));
+            plugin.onLoad();
+            long millis = System.currentTimeMillis() - start;
+            loaded.activated(loader, plugin, millis);
+            log.info("Loaded plugin: {} v{} by {} in {}ms", plugin.getName(), metadata.getVersion(), metadata.getAuthor(), millis);
+            return true;
+        } catch (Exception | LinkageError e) {
+            log.error("Exception loading plugin {}", loaded.getJar().getFileName(), e);
+            if (loader != null) {
+                try {
+                    loader.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return false;
+        }
+    }
+
+    public synchronized void unload(Plugin plugin) {
+        for (LoadedPlugin loaded : plugins) {
+            if (loaded.getPlugin() == plugin) {
+                unload(loaded);
+            }
+        }
     }
 
-    public void unloadAll() {
-        for (Plugin plugin : plugins) {
+    private void unload(LoadedPlugin loaded) {
+        plugins.remove(loaded);
+        Plugin plugin = loaded.getPlugin();
+        if (plugin != null) {
+            eventBus.unregister(plugin);
             plugin.onUnload();
         }
-        plugins.clear();
+        loaded.close();
+    }
+
+    public synchronized void unloadAll() {
+        if (watcher != null) {
+            watcher.close();
+        }
+        for (LoadedPlugin loaded : plugins) {
+            unload(loaded);
+        }
+        if (eventBus != null) {
+            eventBus.close();
+        }
+    }
+
+    /**
+     * Active plugins, in load order.
+     */
+    public List<Plugin> getPlugins() {
+        return plugins.stream().filter(LoadedPlugin::isActive).map(LoadedPlugin::getPlugin).toList();
+    }
+
+    /**
+     * All plugins, including the ones not activated yet.
+     */
+    public List<LoadedPlugin> getLoadedPlugins() {
+        return List.copyOf(plugins);
     }
 
     public void fireEvent(Event event) {
-        for (Plugin plugin : plugins) {
-            plugin.onEvent(event);
+        if (eventBus == null) return;
+        activateFor(event);
+        eventBus.dispatch(event);
+    }
+
+    /**
+     * Activate the deferred plugins waiting for an event before it is dispatched.
+     */
+    private synchronized void activateFor(Event event) {
+        for (LoadedPlugin loaded : plugins) {
+            if (loaded.isActive() || !loaded.activatesOn(event)) continue;
+            if (activate(loaded)) {
+                eventBus.register(loaded.getPlugin());
+            } else {
+                plugins.remove(loaded);
+            }
         }
     }
 }
\ No newline at end of file
@@ -2,7 +2,18 @@ package net.rolandbrt.patchsync.plugin;
 
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 public class PluginMetadata {
     private String name, version, author, mainClass;
+    /**
+     * Event types (simple or full class names) that activate the plugin. When set, the plugin is only loaded
+     * once the first such event is fired instead of at startup.
+     */
+    private List<String> activateOn = List.of();
+
+    public boolean isLazy() {
+        return activateOn != null && !activateOn.isEmpty();
+    }
 }
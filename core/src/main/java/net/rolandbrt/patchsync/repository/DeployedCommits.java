@@ -0,0 +1,56 @@
+package net.rolandbrt.patchsync.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.util.JsonUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent record of the last commit deployed for every repository.
+ */
+@Slf4j
+public class DeployedCommits {
+    private final File file;
+    private final Map<String, String> commits = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public DeployedCommits(File file) {
+        this.file = file;
+        if (!file.exists()) return;
+        try {
+            commits.putAll(JsonUtils.fromJson(file, Map.class));
+        } catch (Exception e) {
+            log.warn("Failed to read {}, every artifact will be considered changed", file, e);
+        }
+    }
+
+    public String get(String repoName) {
+        return commits.get(repoName);
+    }
+
+    public void put(String repoName, String commit) {
+        if (commit == null || commit.equals(commits.put(repoName, commit))) return;
+        save();
+    }
+
+    public void remove(String repoName) {
+        if (commits.remove(repoName) == null) return;
+        save();
+    }
+
+    private synchronized void save() {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            JsonUtils.toJson(temp, new HashMap<>(commits));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            log.error("Failed to save {}", file, e);
+        }
+    }
+}
\ No newline at end of file
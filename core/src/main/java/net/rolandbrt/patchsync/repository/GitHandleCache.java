@@ -0,0 +1,179 @@
+package net.rolandbrt.patchsync.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.util.ThreadUtils;
+import org.eclipse.jgit.api.Git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of open JGit handles, so packs, refs and config are not re-read for every update.
+ * A lease gives exclusive use of a repository to one thread, handles are only closed when no lease holds them.
+ */
+@Slf4j
+public class GitHandleCache {
+    private final int maxSize;
+    private final long idleMillis;
+    // Access ordered, the first entry is the least recently used one
+    private final Map<File, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(ThreadUtils.named("git-cache"));
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong();
+    private boolean closed;
+
+    public GitHandleCache(int maxSize, int idleSeconds) {
+        this.maxSize = Math.max(1, maxSize);
+        this.idleMillis = TimeUnit.SECONDS.toMillis(Math.max(1, idleSeconds));
+        long period = Math.max(1000, idleMillis / 2);
+        evictor.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Lease the handle of a repository, opening it if it is not cached.
+     * Blocks while another thread holds a lease on the same repository.
+     *
+     * @param repoDir Repository working tree
+     * @return Lease to close once done with the handle
+     */
+    public Lease acquire(File repoDir) throws IOException {
+        File key = repoDir.getAbsoluteFile();
+        Handle handle;
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Git handle cache is closed");
+            handle = handles.get(key);
+            if (handle == null) {
+                misses.incrementAndGet();
+                handle = new Handle(Git.open(key));
+                handles.put(key, handle);
+            } else {
+                hits.incrementAndGet();
+            }
+            handle.users++;
+        }
+        handle.lock.lock();
+        return new Lease(key, handle);
+    }
+
+    /**
+     * Close and forget a repository handle, e.g. before its directory is deleted.
+     */
+    public synchronized void invalidate(File repoDir) {
+        Handle handle = handles.get(repoDir.getAbsoluteFile());
+        if (handle == null) return;
+        handle.invalid = true;
+        if (handle.users == 0) {
+            handles.remove(repoDir.getAbsoluteFile());
+            handle.git.close();
+        }
+    }
+
+    private synchronized void release(File key, Handle handle) {
+        handle.users--;
+        handle.lastUsed = System.currentTimeMillis();
+        if (handle.users == 0 && (handle.invalid || closed)) {
+            handles.remove(key, handle);
+            handle.git.close();
+            return;
+        }
+        evictOverflow();
+    }
+
+    private synchronized void evictOverflow() {
+        Iterator<Handle> iterator = handles.values().iterator();
+        while (handles.size() > maxSize && iterator.hasNext()) {
+            Handle handle = iterator.next();
+            if (handle.users > 0) continue;
+            iterator.remove();
+            handle.git.close();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private synchronized void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<Handle> iterator = handles.values().iterator();
+        while (iterator.hasNext()) {
+            Handle handle = iterator.next();
+            if (handle.users > 0 || now - handle.lastUsed < idleMillis) continue;
+            iterator.remove();
+            handle.git.close();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        long hits = this.hits.get(), total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized int size() {
+        return handles.size();
+    }
+
+    /**
+     * Close every idle handle, handles still leased are closed when released.
+     */
+    public synchronized void close() {
+        closed = true;
+        evictor.shutdownNow();
+        handles.values().removeIf(handle -> {
+            if (handle.users > 0) return false;
+            handle.git.close();
+            return true;
+        });
+        log.info("Closed git handle cache ({} hits, {} misses, {} evictions, hit rate {}%)",
+                hits.get(), misses.get(), evictions.get(), Math.round(getHitRate() * 100));
+    }
+
+    private static class Handle {
+        private final Git git;
+        private final ReentrantLock lock = new ReentrantLock();
+        private int users;
+        private long lastUsed = System.currentTimeMillis();
+        private boolean invalid;
+
+        private Handle(Git git) {
+            this.git = git;
+        }
+    }
+
+    public class Lease implements AutoCloseable {
+        private final File key;
+        private final Handle handle;
+
+        private Lease(File key, Handle handle) {
+            this.key = key;
+            this.handle = handle;
+        }
+
+        public Git git() {
+            return handle.git;
+        }
+
+        @Override
+        public void close() {
+            handle.lock.unlock();
+            release(key, handle);
+        }
+    }
+}
\ No newline at end of file
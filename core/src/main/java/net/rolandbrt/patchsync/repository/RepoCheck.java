@@ -0,0 +1,14 @@
+package net.rolandbrt.patchsync.repository;
+
+import net.rolandbrt.patchsync.data.Artifact;
+
+import java.util.List;
+
+/**
+ * Outcome of a manual repository check.
+ *
+ * @param changed   Whether HEAD moved (or the repository was cloned)
+ * @param artifacts Artifacts of the repository
+ */
+public record RepoCheck(boolean changed, List<Artifact> artifacts) {
+}
\ No newline at end of file
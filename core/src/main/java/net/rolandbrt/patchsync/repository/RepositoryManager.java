@@ -1,64 +1,252 @@
 package net.rolandbrt.patchsync.repository;
 
-import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.rolandbrt.patchsync.configuration.AppConfig;
 import net.rolandbrt.patchsync.configuration.ArtifactRepoConfig;
 import net.rolandbrt.patchsync.configuration.RepositoryArtifactConfig;
+import net.rolandbrt.patchsync.configuration.SyncConfig;
 import net.rolandbrt.patchsync.data.Artifact;
+import net.rolandbrt.patchsync.metrics.Metrics;
 import net.rolandbrt.patchsync.network.UpdateMessage;
+import net.rolandbrt.patchsync.util.FileUtils;
 import net.rolandbrt.patchsync.util.JsonUtils;
+import net.rolandbrt.patchsync.util.ThreadUtils;
 import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.PullCommand;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
 
 @Slf4j
-@AllArgsConstructor
 public class RepositoryManager {
-    private final AppConfig config;
-    private static final File reposDir = new File("repos");
+    private volatile AppConfig config;
+    // Sync settings are read once, like the pools sized from them, changes need a restart
+    private final SyncConfig sync;
+    private static final String REPO_CONFIG = "repo-config.json";
+    private final File reposDir;
+    private final DeployedCommits deployedCommits;
+    private final ExecutorService fetchExecutor;
+    private final Semaphore gitPermits;
+    @Getter
+    private final GitHandleCache gitCache;
 
-    public List<Artifact> checkAllRepos() {
-        log.info("Checking all repos for updates...");
-        List<Artifact> artifacts = new ArrayList<>();
+    public RepositoryManager(AppConfig config) {
+        this(config, new File("repos"));
+    }
+
+    public RepositoryManager(AppConfig config, File reposDir) {
+        this.config = config;
+        this.reposDir = reposDir;
+        this.deployedCommits = new DeployedCommits(new File(reposDir, ".deployed.json"));
+        this.sync = config.getSync();
+        this.fetchExecutor = ThreadUtils.newIoExecutor(sync.getRepoThreads(), sync.isVirtualThreads(), "repo-sync");
+        this.gitPermits = new Semaphore(Math.max(1, sync.getRepoThreads()));
+        this.gitCache = new GitHandleCache(sync.getGitCacheSize(), sync.getGitCacheIdleSeconds());
+        Metrics.gauge("git_cache_hits", gitCache::getHits);
+        Metrics.gauge("git_cache_misses", gitCache::getMisses);
+        Metrics.gauge("git_cache_evictions", gitCache::getEvictions);
+        Metrics.gauge("git_cache_hit_ratio", gitCache::getHitRate);
+        Metrics.gauge("git_cache_open", gitCache::size);
+    }
 
-        config.getRepositories().forEach((name, repoCfg) -> {
-            File repoDir = new File(reposDir, name);
+    public Set<String> getRepositoryNames() {
+        return new LinkedHashSet<>(config.getRepositories().keySet());
+    }
+
+    /**
+     * Clone or pull a repository and load its artifacts, giving up after the configured timeout.
+     * Callers must run it on the repository's lane, so it never races a webhook update or a reset of the same clone.
+     *
+     * @param name Repository name
+     * @return Whether the repository changed and its artifacts, none if it is not configured
+     * @throws TimeoutException If the repository could not be updated in time
+     */
+    public RepoCheck checkRepo(String name) throws Exception {
+        ArtifactRepoConfig repoCfg = config.getRepositories().get(name);
+        if (repoCfg == null) return new RepoCheck(false, Collections.emptyList());
+        int timeout = sync.getRepoTimeoutSeconds();
+        File repoDir = new File(reposDir, name);
+        CompletableFuture<Void> started = new CompletableFuture<>(), stopped = new CompletableFuture<>();
+        Future<RepoCheck> future = fetchExecutor.submit(() -> {
             try {
-                updateRepo(name, repoCfg, repoDir);
-                artifacts.addAll(loadArtifacts(repoDir, name, repoCfg));
-            } catch (Exception e) {
-                log.error("Failed to update repo {} -> {}", repoCfg.getRepo(), e.getMessage());
+                boolean changed = updateRepo(name, repoCfg, repoDir, () -> started.complete(null));
+                return new RepoCheck(changed, loadArtifacts(repoDir, name, repoCfg));
+            } finally {
+                started.complete(null);
+                stopped.complete(null);
             }
         });
-        return artifacts;
+        try {
+            // The timeout starts once the fetch holds its git permit, waiting behind other repositories does not count
+            started.get();
+            return future.get(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            // Keep the lane until the clone or pull really stopped, the next task of the lane must not share the checkout
+            stopped.join();
+            throw new TimeoutException("Timed out updating repo " + repoCfg.getRepo() + " after " + timeout + "s");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
     }
 
+    /**
+     * Update the repository named in a webhook message and return the artifacts changed since the last deploy.
+     * The pull is skipped when the notified commit is already checked out.
+     *
+     * @param message Webhook message
+     * @return Artifacts whose files changed between the last deployed commit and HEAD
+     */
     public List<Artifact> fetchArtifactsFromMessage(UpdateMessage message) throws Exception {
-        File repoDir = new File(reposDir, message.getRepoName());
-        ArtifactRepoConfig repoCfg = config.getRepositories().get(message.getRepoName());
+        String name = message.getRepoName();
+        File repoDir = new File(reposDir, name);
+        ArtifactRepoConfig repoCfg = config.getRepositories().get(name);
         if (repoCfg == null) return Collections.emptyList();
-        updateRepo(message.getRepoName(), repoCfg, repoDir);
-        return loadArtifacts(repoDir, message.getRepoName(), repoCfg);
+        String deployed = deployedCommits.get(name);
+        if (message.getCommit() != null && repoDir.exists() && message.getCommit().equals(head(repoDir))) {
+            if (message.getCommit().equals(deployed)) {
+                log.info("Commit {} of {} is already deployed", message.getCommit(), name);
+                return Collections.emptyList();
+            }
+            log.info("Commit {} of {} is already checked out, skipping pull", message.getCommit(), name);
+        } else {
+            updateRepo(name, repoCfg, repoDir, () -> {
+            });
+        }
+        return loadChangedArtifacts(repoDir, name, repoCfg, deployed);
+    }
+
+    public boolean isConfigured(String name) {
+        return config.getRepositories().containsKey(name);
+    }
+
+    /**
+     * Remember the commits of deployed artifacts, so later updates only return what changed after them.
+     *
+     * @param artifacts Successfully deployed artifacts, their version holds the commit
+     */
+    public void markDeployed(List<Artifact> artifacts) {
+        for (Artifact artifact : artifacts) {
+            if (artifact.getRepo() != null && artifact.getVersion() != null) {
+                deployedCommits.put(artifact.getRepo(), artifact.getVersion());
+            }
+        }
+    }
+
+    /**
+     * Swap in a reloaded config. Credentials, depth and other repository settings apply from the next fetch,
+     * repositories whose URL or branch changed have to be {@link #reset(String) reset} to be cloned again.
+     * The sync section keeps its startup values until a restart.
+     *
+     * @param next Reloaded config
+     * @return Names of the repositories whose URL or branch changed
+     */
+    public Set<String> updateConfig(AppConfig next) {
+        Map<String, ArtifactRepoConfig> previous = config.getRepositories();
+        Set<String> moved = new LinkedHashSet<>();
+        next.getRepositories().forEach((name, repoCfg) -> {
+            ArtifactRepoConfig old = previous.get(name);
+            if (old == null) {
+                log.info("Added repo {}({})", name, repoCfg.getRepo());
+            } else if (!Objects.equals(old.getRepo(), repoCfg.getRepo()) || !Objects.equals(old.getBranch(), repoCfg.getBranch())) {
+                log.info("Repo {} moved from {}({}) to {}({})", name, old.getRepo(), old.getBranch(), repoCfg.getRepo(), repoCfg.getBranch());
+                moved.add(name);
+            }
+        });
+        previous.keySet().stream()
+                .filter(name -> !next.getRepositories().containsKey(name))
+                .forEach(name -> log.info("Removed repo {}, its clone is kept in {}", name, new File(reposDir, name)));
+        this.config = next;
+        return moved;
+    }
+
+    /**
+     * Drop the local clone of a repository and its deployed commit, so the next update clones it from scratch.
+     * Must run on the repository's lane so no update uses the clone meanwhile.
+     *
+     * @param name Repository name
+     */
+    public void reset(String name) throws IOException {
+        File repoDir = new File(reposDir, name);
+        gitCache.invalidate(repoDir);
+        FileUtils.deleteRecursively(repoDir.toPath());
+        deployedCommits.remove(name);
+        log.info("Removed local clone of {}", name);
+    }
+
+    public void close() {
+        fetchExecutor.shutdownNow();
+        gitCache.close();
+    }
+
+    /**
+     * Clone or pull a repository, waiting for one of the global git permits first.
+     *
+     * @param onPermit Called once the permit was acquired
+     * @return true if HEAD moved (or the repository was cloned)
+     */
+    private boolean updateRepo(String name, ArtifactRepoConfig repoCfg, File repoDir, Runnable onPermit) throws Exception {
+        long waiting = System.nanoTime();
+        gitPermits.acquire();
+        long start = System.nanoTime();
+        Metrics.timer("git_permit_wait").record(start - waiting);
+        try {
+            onPermit.run();
+            return syncRepo(name, repoCfg, repoDir);
+        } finally {
+            gitPermits.release();
+            Metrics.timer("git_fetch", "repo", name).recordSince(start);
+        }
     }
 
-    private void updateRepo(String name, ArtifactRepoConfig repoCfg, File repoDir) throws Exception {
+    /**
+     * Clone or pull a repository.
+     * Shallow, single branch and sparse repositories are fetched and then moved to the fetched commit instead of pulled,
+     * since pulls always merge full history into the whole working tree.
+     *
+     * @return true if HEAD moved (or the repository was cloned)
+     */
+    private boolean syncRepo(String name, ArtifactRepoConfig repoCfg, File repoDir) throws Exception {
         String repoUrl = repoCfg.getRepo();
         String branch = repoCfg.getBranch() != null ? repoCfg.getBranch() : "main";
         RepositoryCredentials credentials = repoCfg.getCredentials();
+        int timeout = sync.getRepoTimeoutSeconds();
 
         if (!repoDir.exists()) {
-            log.info("Cloning {}({}) (branch: {}) -> {}", name, repoUrl, branch, repoDir);
+            log.info("Cloning {}({}) (branch: {}{}) -> {}", name, repoUrl, branch, describeMode(repoCfg), repoDir);
             CloneCommand clone = Git.cloneRepository()
-                    .setURI("https://" + repoUrl + ".git")
+                    .setURI(remoteUrl(repoUrl))
                     .setDirectory(repoDir)
-                    .setBranch(branch);
+                    .setBranch(branch)
+                    .setTimeout(timeout);
+            if (repoCfg.isSingleBranch()) {
+                clone.setBranchesToClone(List.of(Constants.R_HEADS + branch));
+            }
+            if (repoCfg.getDepth() > 0) {
+                clone.setDepth(repoCfg.getDepth());
+            }
+            if (repoCfg.isSparse()) {
+                clone.setNoCheckout(true);
+            }
             if (credentials != null) {
                 clone.setCredentialsProvider(
                         new UsernamePasswordCredentialsProvider(
@@ -67,11 +255,53 @@ public class RepositoryManager {
                         )
                 );
             }
-            clone.call();
+            try (Git git = clone.call()) {
+                if (repoCfg.isSparse()) {
+                    Repository repository = git.getRepository();
+                    SparseCheckout.checkout(repository, branch, repository.resolve(remoteRef(branch)), null);
+                }
+            }
+            return true;
+        } else if (repoCfg.isSparse() || repoCfg.isSingleBranch() || repoCfg.getDepth() > 0) {
+            try (GitHandleCache.Lease lease = gitCache.acquire(repoDir)) {
+                Git git = lease.git();
+                log.info("Fetching latest for {}({}) (branch: {}{})", name, repoUrl, branch, describeMode(repoCfg));
+                Repository repository = git.getRepository();
+                ObjectId before = repository.resolve(Constants.HEAD);
+                FetchCommand fetch = git.fetch()
+                        .setRemote(Constants.DEFAULT_REMOTE_NAME)
+                        .setRefSpecs(new RefSpec("+" + Constants.R_HEADS + branch + ":" + remoteRef(branch)))
+                        .setTimeout(timeout);
+                if (repoCfg.getDepth() > 0) {
+                    fetch.setDepth(repoCfg.getDepth());
+                }
+                if (credentials != null) {
+                    fetch.setCredentialsProvider(
+                            new UsernamePasswordCredentialsProvider(
+                                    credentials.getUsername(),
+                                    credentials.getToken()
+                            )
+                    );
+                }
+                fetch.call();
+                ObjectId fetched = repository.resolve(remoteRef(branch));
+                if (fetched == null) {
+                    throw new IOException("Branch " + branch + " not found on remote");
+                }
+                if (fetched.equals(before)) return false;
+                if (repoCfg.isSparse()) {
+                    SparseCheckout.checkout(repository, branch, fetched, before);
+                } else {
+                    git.reset().setMode(ResetCommand.ResetType.HARD).setRef(fetched.getName()).call();
+                }
+                return true;
+            }
         } else {
-            try (Git git = Git.open(repoDir)) {
+            try (GitHandleCache.Lease lease = gitCache.acquire(repoDir)) {
+                Git git = lease.git();
                 log.info("Pulling latest for {}({}) (branch: {})", name, repoUrl, branch);
-                PullCommand pull = git.pull().setRemoteBranchName(branch);
+                ObjectId before = git.getRepository().resolve(Constants.HEAD);
+                PullCommand pull = git.pull().setRemoteBranchName(branch).setTimeout(timeout);
                 if (credentials != null) {
                     pull.setCredentialsProvider(
                             new UsernamePasswordCredentialsProvider(
@@ -81,17 +311,104 @@ public class RepositoryManager {
                     );
                 }
                 pull.call();
+                return !Objects.equals(before, git.getRepository().resolve(Constants.HEAD));
+            }
+        }
+    }
+
+    /**
+     * Full URLs (https://, ssh://, file://) are used as they are, anything else is a GitHub style host/owner/name.
+     */
+    private static String remoteUrl(String repo) {
+        return repo.contains("://") ? repo : "https://" + repo + ".git";
+    }
+
+    private static String remoteRef(String branch) {
+        return Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branch;
+    }
+
+    private static String describeMode(ArtifactRepoConfig repoCfg) {
+        StringBuilder mode = new StringBuilder();
+        if (repoCfg.getDepth() > 0) mode.append(", depth: ").append(repoCfg.getDepth());
+        if (repoCfg.isSingleBranch()) mode.append(", single branch");
+        if (repoCfg.isSparse()) mode.append(", sparse");
+        return mode.toString();
+    }
+
+    /**
+     * Load only the artifacts whose files changed between the last deployed commit and HEAD.
+     * Every artifact is returned when there is no usable previous commit or repo-config.json itself changed.
+     */
+    private List<Artifact> loadChangedArtifacts(File repoDir, String repoName, ArtifactRepoConfig repoCfg, String deployed) throws Exception {
+        List<Artifact> artifacts = loadArtifacts(repoDir, repoName, repoCfg);
+        if (deployed == null || artifacts.isEmpty()) return artifacts;
+        String head = artifacts.get(0).getVersion();
+        if (deployed.equals(head)) {
+            log.info("HEAD {} of {} is already deployed", head, repoName);
+            return Collections.emptyList();
+        }
+        Set<String> changedPaths;
+        try (GitHandleCache.Lease lease = gitCache.acquire(repoDir)) {
+            Git git = lease.git();
+            changedPaths = changedPaths(git.getRepository(), deployed, head);
+        }
+        if (changedPaths == null || changedPaths.contains(REPO_CONFIG)) return artifacts;
+
+        Path root = repoDir.toPath();
+        List<Artifact> changed = artifacts.stream()
+                .filter(artifact -> changedPaths.contains(
+                        root.relativize(artifact.getFile().toPath()).normalize().toString().replace(File.separatorChar, '/')))
+                .toList();
+        log.info("{} of {} artifacts changed in {} between {} and {}", changed.size(), artifacts.size(), repoName, deployed, head);
+        if (changed.isEmpty()) {
+            // Nothing to deploy for this commit, it counts as deployed
+            deployedCommits.put(repoName, head);
+        }
+        return changed;
+    }
+
+    /**
+     * Paths that differ between the trees of two commits.
+     *
+     * @return Changed paths, or null if the old commit is not available (e.g. after a force push)
+     */
+    private Set<String> changedPaths(Repository repository, String from, String to) throws IOException {
+        try (RevWalk walk = new RevWalk(repository);
+             TreeWalk treeWalk = new TreeWalk(repository)) {
+            ObjectId fromId = repository.resolve(from), toId = repository.resolve(to);
+            if (fromId == null || toId == null) return null;
+            treeWalk.addTree(walk.parseCommit(fromId).getTree());
+            treeWalk.addTree(walk.parseCommit(toId).getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            Set<String> paths = new HashSet<>();
+            while (treeWalk.next()) {
+                paths.add(treeWalk.getPathString());
             }
+            return paths;
+        } catch (MissingObjectException e) {
+            log.warn("Commit {} is not available locally, treating every artifact as changed", from);
+            return null;
+        }
+    }
+
+    private String head(File repoDir) throws IOException {
+        try (GitHandleCache.Lease lease = gitCache.acquire(repoDir)) {
+            Git git = lease.git();
+            ObjectId head = git.getRepository().resolve(Constants.HEAD);
+            return head == null ? null : head.getName();
         }
     }
 
     private List<Artifact> loadArtifacts(File repoDir, String repoName, ArtifactRepoConfig repoCfg) throws Exception {
-        File cfgFile = new File(repoDir, "repo-config.json");
+        long start = System.nanoTime();
+        File cfgFile = new File(repoDir, REPO_CONFIG);
         if (!cfgFile.exists()) {
             log.warn("No repo-config.json in {}", repoDir);
             return Collections.emptyList();
         }
         RepositoryArtifactConfig cfg = JsonUtils.fromJson(cfgFile, RepositoryArtifactConfig.class);
+        String head = head(repoDir);
 
         List<Artifact> artifacts = new ArrayList<>();
         for (RepositoryArtifactConfig.ArtifactDef def : cfg.getArtifacts()) {
@@ -101,8 +418,10 @@ public class RepositoryManager {
                     .file(file)
                     .repo(repoName)
                     .branch(repoCfg.getBranch() != null ? repoCfg.getBranch() : "main")
+                    .version(head)
                     .build());
         }
+        Metrics.timer("artifact_load", "repo", repoName).recordSince(start);
         return artifacts;
     }
 }
\ No newline at end of file
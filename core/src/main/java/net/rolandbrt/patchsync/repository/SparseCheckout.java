@@ -0,0 +1,97 @@
+package net.rolandbrt.patchsync.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.configuration.RepositoryArtifactConfig;
+import net.rolandbrt.patchsync.util.FileUtils;
+import net.rolandbrt.patchsync.util.JsonUtils;
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Materializes only repo-config.json and the artifact files it lists from a commit into the working directory,
+ * without populating the index. JGit has no native sparse checkout, this covers what deploys read.
+ */
+@Slf4j
+public class SparseCheckout {
+    private static final String REPO_CONFIG = "repo-config.json";
+
+    /**
+     * Point the local branch and HEAD at a commit and write the files deploys need.
+     *
+     * @param repository Repository with a working tree
+     * @param branch     Local branch name
+     * @param commit     Commit to check out
+     * @param previous   Previously checked out commit, files unchanged since then are not rewritten (nullable)
+     */
+    public static void checkout(Repository repository, String branch, ObjectId commit, ObjectId previous) throws IOException {
+        RefUpdate branchUpdate = repository.updateRef(Constants.R_HEADS + branch);
+        branchUpdate.setNewObjectId(commit);
+        branchUpdate.forceUpdate();
+        RefUpdate headUpdate = repository.updateRef(Constants.HEAD);
+        headUpdate.link(Constants.R_HEADS + branch);
+
+        Path root = repository.getWorkTree().toPath();
+        try (RevWalk walk = new RevWalk(repository)) {
+            RevCommit revCommit = walk.parseCommit(commit);
+            RevCommit previousCommit = previous == null ? null : walk.parseCommit(previous);
+            if (!write(repository, revCommit, previousCommit, REPO_CONFIG, root)) {
+                log.warn("No {} in commit {}", REPO_CONFIG, commit.getName());
+                return;
+            }
+            RepositoryArtifactConfig cfg;
+            try {
+                cfg = JsonUtils.fromJson(root.resolve(REPO_CONFIG).toFile(), RepositoryArtifactConfig.class);
+            } catch (Exception e) {
+                throw new IOException("Failed to parse " + REPO_CONFIG, e);
+            }
+            List<String> missing = new ArrayList<>();
+            for (RepositoryArtifactConfig.ArtifactDef def : cfg.getArtifacts()) {
+                if (!write(repository, revCommit, previousCommit, def.getPath(), root)) {
+                    missing.add(def.getPath());
+                }
+            }
+            log.info("Sparse checkout of {} artifacts at {}{}", cfg.getArtifacts().size() - missing.size(),
+                    commit.getName(), missing.isEmpty() ? "" : ", missing: " + missing);
+        }
+    }
+
+    private static boolean write(Repository repository, RevCommit commit, RevCommit previous, String path, Path root) throws IOException {
+        String normalized = path.replace('\\', '/');
+        while (normalized.startsWith("./")) normalized = normalized.substring(2);
+        Path target = root.resolve(normalized).normalize();
+        if (!target.startsWith(root)) {
+            throw new SecurityException("Artifact path outside of repository: " + path);
+        }
+        try (TreeWalk treeWalk = TreeWalk.forPath(repository, normalized, commit.getTree())) {
+            if (treeWalk == null) return false;
+            ObjectId blob = treeWalk.getObjectId(0);
+            if (previous != null && Files.exists(target)) {
+                try (TreeWalk previousWalk = TreeWalk.forPath(repository, normalized, previous.getTree())) {
+                    if (previousWalk != null && blob.equals(previousWalk.getObjectId(0))) return true;
+                }
+            }
+            ObjectLoader loader = repository.open(blob, Constants.OBJ_BLOB);
+            Files.createDirectories(target.getParent());
+            Path staged = FileUtils.createStagingFile(target);
+            try {
+                try (OutputStream out = Files.newOutputStream(staged)) {
+                    loader.copyTo(out);
+                }
+                FileUtils.commit(staged, target);
+            } catch (IOException e) {
+                Files.deleteIfExists(staged);
+                throw e;
+            }
+            return true;
+        }
+    }
+}
\ No newline at end of file
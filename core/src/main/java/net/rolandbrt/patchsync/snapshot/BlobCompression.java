@@ -0,0 +1,30 @@
+package net.rolandbrt.patchsync.snapshot;
+
+/**
+ * Encoding of objects in the blob store.
+ */
+public enum BlobCompression {
+    /**
+     * Stored as-is, can be hard linked from and to the artifact when enabled.
+     */
+    NONE(""),
+    /**
+     * Deflate stream, trading CPU time on snapshot and restore for disk space.
+     */
+    DEFLATE(".deflate");
+
+    private final String suffix;
+
+    BlobCompression(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    public static BlobCompression of(String name) {
+        if (name == null || name.isBlank()) return NONE;
+        return valueOf(name.trim().toUpperCase());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,193 @@
+package net.rolandbrt.patchsync.snapshot;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.util.CopyStrategy;
+import net.rolandbrt.patchsync.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content-addressed storage for snapshot artifacts.
+ * Every object is stored once under its SHA-256 digest and shared by all snapshots referencing it.
+ * New objects are written with the configured compression, objects written with another one stay readable.
+ */
+@Slf4j
+public class BlobStore {
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    @Getter
+    private final File objectsDir;
+    @Getter
+    private final BlobCompression compression;
+    private final int level;
+    private final boolean hardLink;
+
+    public BlobStore(File objectsDir) {
+        this(objectsDir, BlobCompression.NONE, Deflater.DEFAULT_COMPRESSION, false);
+    }
+
+    /**
+     * @param hardLink Whether uncompressed objects are hard linked from and to files when possible,
+     *                 see {@link FileUtils#stage(Path, Path, boolean)}
+     */
+    public BlobStore(File objectsDir, BlobCompression compression, int level, boolean hardLink) {
+        this.objectsDir = objectsDir;
+        this.compression = compression;
+        this.level = level;
+        this.hardLink = hardLink;
+    }
+
+    /**
+     * Store a file under the given digest, copying it only if no object with the same content exists yet.
+     *
+     * @param source File to store
+     * @param digest SHA-256 digest of the file
+     * @return true if a new object was written, false if it was already present
+     */
+    public boolean put(Path source, String digest) throws IOException {
+        if (contains(digest)) {
+            return false;
+        }
+        Path object = objectsDir.toPath().resolve(digest + compression.getSuffix());
+        Files.createDirectories(object.getParent());
+        // Stage next to the object first so a crash never leaves a truncated blob behind. Concurrent
+        // snapshots may store the same content, so every writer gets its own temp file
+        Path temp = Files.createTempFile(object.getParent(), digest, TEMP_SUFFIX);
+        String strategy;
+        try {
+            if (compression == BlobCompression.DEFLATE) {
+                deflate(source, temp);
+                strategy = "deflate";
+            } else {
+                strategy = FileUtils.stage(source, temp, hardLink).toString();
+            }
+            Files.move(temp, object, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Another writer stored the same content first
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        log.debug("Stored object {} from {} ({})", digest, source, strategy);
+        return true;
+    }
+
+    /**
+     * Write a compressed copy of a file, streaming through a fixed buffer.
+     */
+    private void deflate(Path source, Path temp) throws IOException {
+        Files.deleteIfExists(temp);
+        Deflater deflater = new Deflater(level);
+        try (InputStream in = Files.newInputStream(source);
+             FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+             DeflaterOutputStream out = new DeflaterOutputStream(Channels.newOutputStream(channel), deflater, BUFFER_SIZE)) {
+            in.transferTo(out);
+            out.finish();
+            channel.force(true);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public boolean contains(String digest) {
+        return Files.exists(resolve(digest));
+    }
+
+    /**
+     * Path of the stored object, whichever compression it was written with.
+     */
+    public Path resolve(String digest) {
+        Path objects = objectsDir.toPath();
+        for (BlobCompression candidate : BlobCompression.values()) {
+            Path object = objects.resolve(digest + candidate.getSuffix());
+            if (Files.exists(object)) return object;
+        }
+        return objects.resolve(digest + compression.getSuffix());
+    }
+
+    /**
+     * Write an object to a file.
+     *
+     * @param digest Digest of the object
+     * @param target Destination, replaced atomically
+     */
+    public void restore(String digest, Path target) throws IOException {
+        Path staged = FileUtils.createStagingFile(target);
+        try {
+            stage(digest, staged);
+            FileUtils.commit(staged, target);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    /**
+     * Write an object to a staged file that is committed by the caller. Uncompressed objects are copied
+     * (or hard linked when enabled), compressed ones are inflated straight into a channel of the staged file.
+     *
+     * @param digest Digest of the object
+     * @param staged File to write, replaced if it exists
+     * @return How the staged file was written
+     */
+    public CopyStrategy stage(String digest, Path staged) throws IOException {
+        Path object = resolve(digest);
+        if (!object.getFileName().toString().endsWith(BlobCompression.DEFLATE.getSuffix())) {
+            return FileUtils.stage(object, staged, hardLink);
+        }
+        Files.deleteIfExists(staged);
+        Inflater inflater = new Inflater();
+        try (ReadableByteChannel in = Channels.newChannel(new InflaterInputStream(Files.newInputStream(object), inflater, BUFFER_SIZE));
+             FileChannel out = FileChannel.open(staged, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            long position = 0, read;
+            while ((read = out.transferFrom(in, position, BUFFER_SIZE)) > 0) {
+                position += read;
+            }
+            out.force(true);
+        } finally {
+            inflater.end();
+        }
+        return CopyStrategy.TRANSFER;
+    }
+
+    /**
+     * Move every object that is not referenced anymore out of the store. Renames are cheap, so this can run while
+     * writers are locked out, and the detached objects are deleted afterwards without holding anyone up.
+     *
+     * @param referenced Digests still referenced by at least one snapshot
+     * @param trash      Directory on the same file system receiving the unreferenced objects
+     * @return Number of detached objects
+     */
+    public int collect(Set<String> referenced, Path trash) throws IOException {
+        if (!objectsDir.exists()) return 0;
+        int detached = 0;
+        try (Stream<Path> objects = Files.list(objectsDir.toPath())) {
+            for (Path object : objects.toList()) {
+                String name = object.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    // Left behind by an interrupted put
+                    Files.move(object, trash.resolve(name));
+                    continue;
+                }
+                String digest = name.endsWith(BlobCompression.DEFLATE.getSuffix())
+                        ? name.substring(0, name.length() - BlobCompression.DEFLATE.getSuffix().length()) : name;
+                if (referenced.contains(digest)) continue;
+                Files.move(object, trash.resolve(name));
+                detached++;
+            }
+        }
+        return detached;
+    }
+}
\ No newline at end of file
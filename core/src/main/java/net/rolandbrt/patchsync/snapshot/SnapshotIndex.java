@@ -0,0 +1,175 @@
+package net.rolandbrt.patchsync.snapshot;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import net.rolandbrt.patchsync.util.FileUtils;
+import net.rolandbrt.patchsync.util.JsonUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Manifests of all snapshots in a single file, read once at startup and updated as snapshots are created and deleted.
+ * Manifests in the snapshot directories stay the source of truth: snapshots missing from the index are added
+ * and deleted ones dropped when it is loaded.
+ */
+@Slf4j
+public class SnapshotIndex {
+    public static final String FILE_NAME = "index.json";
+    private final File indexFile;
+    private final NavigableMap<String, SnapshotManifest> snapshots = new TreeMap<>();
+
+    private SnapshotIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public static SnapshotIndex load(File snapshotsDir) {
+        SnapshotIndex index = new SnapshotIndex(new File(snapshotsDir, FILE_NAME));
+        if (index.indexFile.exists()) {
+            try {
+                Stored stored = JsonUtils.fromJson(index.indexFile, Stored.class);
+                for (SnapshotManifest manifest : stored.getSnapshots()) {
+                    index.snapshots.put(manifest.getId(), manifest);
+                }
+            } catch (Exception e) {
+                log.warn("Failed to read {}, rebuilding it from the snapshot manifests", index.indexFile, e);
+            }
+        }
+        if (index.reconcile(snapshotsDir)) {
+            index.save();
+        }
+        log.info("Loaded snapshot index with {} snapshots", index.snapshots.size());
+        return index;
+    }
+
+    /**
+     * Add snapshots missing from the index and drop the ones whose directory is gone.
+     *
+     * @return Whether the index changed
+     */
+    private boolean reconcile(File snapshotsDir) {
+        if (!snapshotsDir.exists()) return false;
+        Set<String> ids = new HashSet<>();
+        try (Stream<Path> paths = Files.list(snapshotsDir.toPath())) {
+            paths.filter(Files::isDirectory)
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> !name.startsWith("."))
+                    .forEach(ids::add);
+        } catch (IOException e) {
+            log.error("Failed to list snapshots", e);
+            return false;
+        }
+        boolean changed = snapshots.keySet().retainAll(ids);
+        for (String id : ids) {
+            if (snapshots.containsKey(id)) continue;
+            SnapshotManifest manifest = readManifest(new File(snapshotsDir, id));
+            if (manifest != null) {
+                snapshots.put(id, manifest);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Read the manifest of a snapshot directory, describing snapshots taken before manifests existed from their files.
+     */
+    private static SnapshotManifest readManifest(File snapshotDir) {
+        File manifestFile = new File(snapshotDir, SnapshotManifest.FILE_NAME);
+        try {
+            if (manifestFile.exists()) {
+                SnapshotManifest manifest = JsonUtils.fromJson(manifestFile, SnapshotManifest.class);
+                manifest.setId(snapshotDir.getName());
+                return manifest;
+            }
+            SnapshotManifest manifest = new SnapshotManifest();
+            manifest.setId(snapshotDir.getName());
+            manifest.setLegacy(true);
+            try (Stream<Path> paths = Files.list(snapshotDir.toPath())) {
+                for (Path file : paths.filter(Files::isRegularFile).toList()) {
+                    String[] nameRepo = FileUtils.getFileNameWithoutExtension(file.getFileName().toString()).split("_", 2);
+                    SnapshotManifest.Entry entry = new SnapshotManifest.Entry();
+                    entry.setName(nameRepo[0]);
+                    entry.setRepo(nameRepo.length < 2 ? "main" : nameRepo[1]);
+                    entry.setFileName(file.getFileName().toString());
+                    entry.setSize(Files.size(file));
+                    manifest.getEntries().add(entry);
+                }
+            }
+            return manifest;
+        } catch (Exception e) {
+            log.error("Failed to read snapshot {}", snapshotDir.getName(), e);
+            return null;
+        }
+    }
+
+    public synchronized SnapshotManifest get(String id) {
+        return snapshots.get(id);
+    }
+
+    /**
+     * All snapshots, newest first.
+     */
+    public synchronized List<SnapshotManifest> list() {
+        return new ArrayList<>(snapshots.descendingMap().values());
+    }
+
+    public synchronized void put(SnapshotManifest manifest) {
+        snapshots.put(manifest.getId(), manifest);
+        save();
+    }
+
+    /**
+     * Change a manifest and save the index, both under the index lock so retention never sees a half applied change.
+     *
+     * @return The changed manifest, null if there is no such snapshot
+     */
+    public synchronized SnapshotManifest update(String id, Consumer<SnapshotManifest> change) {
+        SnapshotManifest manifest = snapshots.get(id);
+        if (manifest == null) return null;
+        change.accept(manifest);
+        save();
+        return manifest;
+    }
+
+    /**
+     * Drop snapshots from the index, except those pinned meanwhile.
+     *
+     * @return IDs of the dropped snapshots
+     */
+    public synchronized List<String> removeUnpinned(Collection<String> ids) {
+        List<String> removed = new ArrayList<>();
+        for (String id : ids) {
+            SnapshotManifest manifest = snapshots.get(id);
+            if (manifest == null || manifest.isPinned()) continue;
+            snapshots.remove(id);
+            removed.add(id);
+        }
+        if (!removed.isEmpty()) save();
+        return removed;
+    }
+
+    private void save() {
+        Stored stored = new Stored();
+        stored.getSnapshots().addAll(snapshots.values());
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try {
+            indexFile.getParentFile().mkdirs();
+            JsonUtils.toJson(temp, stored);
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            log.error("Failed to save {}", indexFile, e);
+        }
+    }
+
+    @Data
+    private static class Stored {
+        private List<SnapshotManifest> snapshots = new ArrayList<>();
+    }
+}
\ No newline at end of file
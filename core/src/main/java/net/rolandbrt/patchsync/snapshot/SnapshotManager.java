@@ -1,170 +1,534 @@
 package net.rolandbrt.patchsync.snapshot;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.rolandbrt.patchsync.configuration.SnapshotConfig;
 import net.rolandbrt.patchsync.data.Artifact;
 import net.rolandbrt.patchsync.data.Snapshot;
+import net.rolandbrt.patchsync.deploy.RestoredFile;
+import net.rolandbrt.patchsync.metrics.Metrics;
+import net.rolandbrt.patchsync.util.CopyStrategy;
 import net.rolandbrt.patchsync.util.FileUtils;
+import net.rolandbrt.patchsync.util.JsonUtils;
+import net.rolandbrt.patchsync.util.ThreadUtils;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.stream.Stream;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 @Slf4j
-@AllArgsConstructor
 public class SnapshotManager {
     public static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+    private static final String OBJECTS_DIR = ".objects", RESTORE_DIR = ".restore", COLLECT_DIR = ".collect";
     private final SnapshotConfig config;
+    private final BlobStore blobStore;
     @Getter
-    private static final File snapshotsDir = new File("snapshots");
+    private final SnapshotIndex index;
+    @Getter
+    private final File snapshotsDir;
+    private final ScheduledExecutorService retention = Executors.newSingleThreadScheduledExecutor(ThreadUtils.named("snapshot-retention"));
+    private final AtomicBoolean retentionQueued = new AtomicBoolean();
+    /**
+     * Snapshot creation and restore hold the read lock, object collection the write lock,
+     * so an object is never collected between being stored and being referenced by an indexed manifest.
+     */
+    private final ReadWriteLock objectsLock = new ReentrantReadWriteLock();
+
+    public SnapshotManager(SnapshotConfig config) {
+        this(config, new File("snapshots"));
+    }
+
+    public SnapshotManager(SnapshotConfig config, File snapshotsDir) {
+        this.config = config;
+        this.snapshotsDir = snapshotsDir;
+        this.blobStore = new BlobStore(new File(snapshotsDir, OBJECTS_DIR),
+                BlobCompression.of(config.getCompression()), config.getCompressionLevel(), config.isHardLink());
+        this.index = SnapshotIndex.load(snapshotsDir);
+        discardStaleWorkDirs();
+        Metrics.gauge("snapshots", () -> index.list().size());
+        long interval = Math.max(1, config.getRetentionIntervalMinutes());
+        retention.scheduleWithFixedDelay(this::cleanOldSnapshots, interval, interval, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Snapshot the target files a deploy of the given artifacts is about to overwrite.
+     * Files identical to the incoming artifact are skipped, and a file content present in several targets is stored
+     * once with all its paths. File contents go to the blob store, the snapshot directory only holds a manifest.
+     *
+     * @param artifacts   Artifacts about to be deployed
+     * @param reason      Reason for snapshot (manual, auto-update)
+     * @param targetPaths Paths every artifact is deployed to
+     * @return Snapshot containing snapshot metadata
+     */
+    public Snapshot createSnapshot(List<Artifact> artifacts, String reason, Function<Artifact, List<Path>> targetPaths) {
+        return createSnapshot(artifacts, reason, targetPaths, new HashMap<>());
+    }
 
     /**
-     * Create a snapshot of the given artifacts.
+     * Snapshot the target files a deploy is about to overwrite, see {@link #createSnapshot(List, String, Function)}.
      *
-     * @param artifacts Artifacts to snapshot
-     * @param reason    Reason for snapshot (manual, auto-update)
+     * @param artifacts   Artifacts about to be deployed
+     * @param reason      Reason for snapshot (manual, auto-update)
+     * @param targetPaths Paths every artifact is deployed to
+     * @param digests     Digests of artifact files by path, reused and filled so the deploy does not hash them again
      * @return Snapshot containing snapshot metadata
      */
-    public Snapshot createSnapshot(List<Artifact> artifacts, String reason) {
+    public Snapshot createSnapshot(List<Artifact> artifacts, String reason, Function<Artifact, List<Path>> targetPaths,
+                                   Map<Path, String> digests) {
         log.info("Creating snapshot for {} artifacts, reason: {}", artifacts.size(), reason);
-        String timestamp = LocalDateTime.now().format(FORMATTER);
-        File snapshotDir = new File(snapshotsDir, timestamp);
+        long start = System.nanoTime();
+        File snapshotDir = allocateSnapshotDir();
+        String timestamp = snapshotDir.getName();
+        objectsLock.readLock().lock();
         try {
-            if (!snapshotDir.exists())
-                snapshotDir.mkdirs();
+            SnapshotManifest manifest = new SnapshotManifest();
+            manifest.setId(timestamp);
+            manifest.setReason(reason);
+            manifest.setTargetFiles(true);
             StringBuilder savedArtifacts = new StringBuilder();
             List<Path> backedUpFiles = new ArrayList<>();
+            int storedObjects = 0, identical = 0;
+            long rawBytes = 0, storedBytes = 0, storeNanos = 0;
             for (Artifact artifact : artifacts) {
-                String fileName = FileUtils.getFileNameWithoutExtension(artifact.getFile().getName());
-                String fileExtension = FileUtils.getFileExtension(artifact.getFile().getName());
-                String targetName = fileName + "_" + artifact.getRepo() +
-                        (fileExtension.isEmpty() ? "" : "." + fileExtension);
                 Path source = artifact.getFile().toPath();
-                Path target = snapshotDir.toPath().resolve(targetName);
-                if (Files.exists(source)) {
-                    Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
-                    backedUpFiles.add(target);
+                if (!Files.exists(source)) continue;
+                String incoming = FileUtils.digest(source, digests);
+                // Current content of every target file -> paths holding it
+                Map<String, List<Path>> previous = new LinkedHashMap<>();
+                for (Path path : targetPaths.apply(artifact)) {
+                    if (!Files.isRegularFile(path)) continue;
+                    String current = FileUtils.digest(path);
+                    if (current.equals(incoming)) {
+                        identical++;
+                        continue;
+                    }
+                    previous.computeIfAbsent(current, k -> new ArrayList<>()).add(path);
+                }
+                for (Map.Entry<String, List<Path>> content : previous.entrySet()) {
+                    String digest = content.getKey();
+                    Path file = content.getValue().get(0);
+                    long storeStart = System.nanoTime();
+                    if (blobStore.put(file, digest)) {
+                        storeNanos += System.nanoTime() - storeStart;
+                        storedObjects++;
+                        rawBytes += Files.size(file);
+                        storedBytes += Files.size(blobStore.resolve(digest));
+                    }
+                    SnapshotManifest.Entry entry = new SnapshotManifest.Entry();
+                    entry.setName(artifact.getName());
+                    entry.setRepo(artifact.getRepo());
+                    entry.setBranch(artifact.getBranch());
+                    entry.setFileName(file.getFileName().toString());
+                    entry.setDigest(digest);
+                    entry.setSize(Files.size(file));
+                    content.getValue().forEach(path -> entry.getTargets().add(path.toAbsolutePath().toString()));
+                    manifest.getEntries().add(entry);
+                    backedUpFiles.add(blobStore.resolve(digest));
                     if (!savedArtifacts.isEmpty()) savedArtifacts.append(", ");
-                    savedArtifacts.append(artifact.getName()).append(":").append(artifact.getRepo());
+                    savedArtifacts.append(artifact.getName()).append(":").append(artifact.getRepo())
+                            .append(" x").append(content.getValue().size());
                 }
             }
+            if (manifest.getEntries().isEmpty()) {
+                // Nothing would be restored from it, and it would push a useful snapshot out of retention
+                FileUtils.deleteRecursively(snapshotDir.toPath());
+                Metrics.counter("snapshot_files_unchanged").add(identical);
+                log.info("No target file differs from the incoming artifacts, no snapshot kept");
+                return Snapshot.builder().id(timestamp).reason(reason).artifacts(artifacts).backedUpFiles(List.of()).build();
+            }
+            JsonUtils.toJson(new File(snapshotDir, SnapshotManifest.FILE_NAME), manifest);
+            index.put(manifest);
+            Metrics.counter("snapshot_objects_stored").add(storedObjects);
+            Metrics.counter("snapshot_bytes_stored").add(storedBytes);
+            Metrics.counter("snapshot_files_unchanged").add(identical);
             if (!savedArtifacts.isEmpty())
-                log.info("Backed up {} artifacts: [{}] to snapshot dir [{}]", backedUpFiles.size(), savedArtifacts, timestamp);
-            cleanOldSnapshots();
+                log.info("Backed up {} target files ({} new objects, {} identical skipped): [{}] to snapshot dir [{}]",
+                        backedUpFiles.size(), storedObjects, identical, savedArtifacts, timestamp);
+            if (storedObjects > 0 && blobStore.getCompression() != BlobCompression.NONE)
+                log.info("Compressed {} objects from {} KiB to {} KiB ({}% saved) in {}ms", storedObjects,
+                        rawBytes / 1024, storedBytes / 1024, rawBytes == 0 ? 0 : 100 - storedBytes * 100 / rawBytes,
+                        storeNanos / 1_000_000);
+            requestRetention();
             return Snapshot.builder()
                     .id(timestamp)
                     .reason(reason)
                     .artifacts(artifacts)
                     .backedUpFiles(backedUpFiles)
                     .build();
-        } catch (IOException e) {
+        } catch (Exception e) {
             log.error("Failed to create snapshot", e);
             return Snapshot.builder().id(timestamp).reason(reason).artifacts(artifacts).build();
+        } finally {
+            objectsLock.readLock().unlock();
+            Metrics.timer("snapshot_create").recordSince(start);
         }
     }
 
+    /**
+     * Create the directory of a new snapshot. Snapshots created within the same second get a numeric suffix.
+     */
+    private synchronized File allocateSnapshotDir() {
+        String timestamp = LocalDateTime.now().format(FORMATTER);
+        File snapshotDir = new File(snapshotsDir, timestamp);
+        for (int i = 2; snapshotDir.exists(); i++) {
+            snapshotDir = new File(snapshotsDir, timestamp + "_" + i);
+        }
+        snapshotDir.mkdirs();
+        return snapshotDir;
+    }
+
+    /**
+     * Creation time of a snapshot, from its ID.
+     *
+     * @param snapshotId Snapshot ID, a timestamp optionally followed by a suffix
+     */
+    public static LocalDateTime parseTimestamp(String snapshotId) {
+        return LocalDateTime.parse(snapshotId.substring(0, Math.min(snapshotId.length(), 15)), FORMATTER);
+    }
+
+    /**
+     * Whether a snapshot holds the target files its deploy replaced, see {@link #restoreTargetFiles}.
+     */
+    public boolean isTargetSnapshot(String snapshotId) {
+        SnapshotManifest manifest = index.get(snapshotId);
+        return manifest != null && manifest.isTargetFiles();
+    }
+
     /**
      * Restore an entire snapshot.
+     * Objects are materialized under their original file names so they can be deployed as-is.
      *
      * @param snapshotId Timestamp or ID of the snapshot
      * @return List of restored artifacts
      */
     public List<Artifact> restore(String snapshotId) {
-        File snapshotDir = new File(snapshotsDir, snapshotId);
-        if (!snapshotDir.exists() || !snapshotDir.isDirectory()) {
+        return restore(snapshotId, entry -> true);
+    }
+
+    /**
+     * Restore the artifacts of a snapshot matching a filter, the others are not copied.
+     *
+     * @param snapshotId Timestamp or ID of the snapshot
+     * @param filter     Selects the artifacts to restore
+     * @return List of restored artifacts
+     */
+    public List<Artifact> restore(String snapshotId, Predicate<SnapshotManifest.Entry> filter) {
+        SnapshotManifest manifest = index.get(snapshotId);
+        if (manifest == null) {
             log.warn("Snapshot {} not found", snapshotId);
             return Collections.emptyList();
         }
+        if (manifest.isLegacy()) {
+            return restoreLegacy(manifest, new File(snapshotsDir, snapshotId), filter);
+        }
+        return new ArrayList<>(materialize(manifest, filter).values());
+    }
+
+    /**
+     * Restore the target files recorded by a snapshot, each to be written back to the paths it was taken from.
+     * Nothing is copied out of the blob store here, every object is staged straight into its targets by the deploy.
+     *
+     * @param snapshotId Timestamp or ID of the snapshot
+     * @param filter     Selects the artifacts to restore
+     * @return Content to write to every recorded target file path, its artifact file is the first of these paths
+     */
+    public Map<Path, RestoredFile> restoreTargetFiles(String snapshotId, Predicate<SnapshotManifest.Entry> filter) {
+        SnapshotManifest manifest = index.get(snapshotId);
+        if (manifest == null) {
+            log.warn("Snapshot {} not found", snapshotId);
+            return Collections.emptyMap();
+        }
+        Map<Path, RestoredFile> files = new LinkedHashMap<>();
+        for (SnapshotManifest.Entry entry : manifest.getEntries()) {
+            if (!filter.test(entry) || entry.getTargets().isEmpty()) continue;
+            if (!blobStore.contains(entry.getDigest())) {
+                log.warn("Missing object {} for artifact {}:{} in snapshot {}",
+                        entry.getDigest(), entry.getName(), entry.getRepo(), manifest.getId());
+                continue;
+            }
+            Artifact artifact = Artifact.builder()
+                    .name(entry.getName())
+                    .file(new File(entry.getTargets().get(0)))
+                    .repo(entry.getRepo())
+                    .branch(entry.getBranch())
+                    .version(entry.getVersion())
+                    .build();
+            RestoredFile file = new RestoredFile(artifact, entry.getDigest(), entry.getSize(),
+                    staged -> stageObject(entry.getDigest(), staged));
+            for (String target : entry.getTargets()) {
+                files.put(Paths.get(target), file);
+            }
+        }
+        return files;
+    }
 
-        try (Stream<Path> paths = Files.list(snapshotDir.toPath())) {
-            List<Artifact> restoredArtifacts = new ArrayList<>();
+    /**
+     * Write an object to a staged file, holding the objects read lock so retention never detaches it meanwhile.
+     */
+    private CopyStrategy stageObject(String digest, Path staged) throws IOException {
+        objectsLock.readLock().lock();
+        try {
+            return blobStore.stage(digest, staged);
+        } finally {
+            objectsLock.readLock().unlock();
+        }
+    }
 
-            for (Path file : paths.toList()) {
-                if (!Files.isRegularFile(file)) continue;
-                String fileName = FileUtils.getFileNameWithoutExtension(file.getFileName().toString());
-                String[] nameRepo = fileName.split("_", 2);
-                Artifact artifact = Artifact.builder()
-                        .name(nameRepo[0])
-                        .file(file.toFile())
-                        .repo(nameRepo.length < 2 || nameRepo[1] == null ? "main" : nameRepo[1])
-                        .build();
-                restoredArtifacts.add(artifact);
+    /**
+     * Copy the selected objects of a snapshot out of the blob store, under their original file names.
+     */
+    private Map<SnapshotManifest.Entry, Artifact> materialize(SnapshotManifest manifest, Predicate<SnapshotManifest.Entry> filter) {
+        objectsLock.readLock().lock();
+        Path restoreDir = null;
+        try {
+            // Every restore gets a directory of its own, concurrent rollbacks never touch each other's files
+            Files.createDirectories(snapshotsDir.toPath());
+            restoreDir = Files.createTempDirectory(snapshotsDir.toPath(), RESTORE_DIR + "-");
+
+            Map<SnapshotManifest.Entry, Artifact> restoredArtifacts = new LinkedHashMap<>();
+            long start = System.currentTimeMillis();
+            for (SnapshotManifest.Entry entry : manifest.getEntries()) {
+                if (!filter.test(entry)) continue;
+                if (!blobStore.contains(entry.getDigest())) {
+                    log.warn("Missing object {} for artifact {}:{} in snapshot {}",
+                            entry.getDigest(), entry.getName(), entry.getRepo(), manifest.getId());
+                    continue;
+                }
+                // One directory per object, the same file name can hold different contents
+                Path target = restoreDir.resolve(entry.getDigest()).resolve(entry.getFileName());
+                Files.createDirectories(target.getParent());
+                blobStore.restore(entry.getDigest(), target);
+                restoredArtifacts.put(entry, Artifact.builder()
+                        .name(entry.getName())
+                        .file(target.toFile())
+                        .repo(entry.getRepo())
+                        .branch(entry.getBranch())
+                        .version(entry.getVersion())
+                        .build());
             }
 
-            log.info("Restored {} artifacts from snapshot {}", restoredArtifacts.size(), snapshotId);
+            log.info("Restored {} artifacts from snapshot {} in {}ms", restoredArtifacts.size(), manifest.getId(),
+                    System.currentTimeMillis() - start);
+            Metrics.timer("snapshot_restore").record(System.currentTimeMillis() - start, TimeUnit.MILLISECONDS);
+            if (restoredArtifacts.isEmpty()) FileUtils.deleteRecursively(restoreDir);
             return restoredArtifacts;
-        } catch (IOException e) {
-            log.error("Failed to restore snapshot {}", snapshotId, e);
-            return Collections.emptyList();
+        } catch (Exception e) {
+            log.error("Failed to restore snapshot {}", manifest.getId(), e);
+            if (restoreDir != null) {
+                try {
+                    FileUtils.deleteRecursively(restoreDir);
+                } catch (IOException ex) {
+                    log.warn("Failed to delete restored files in {}", restoreDir, ex);
+                }
+            }
+            return Collections.emptyMap();
+        } finally {
+            objectsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Delete the files a restore materialized, once they were deployed.
+     * Artifacts restored from legacy snapshots live in the snapshot itself and are kept.
+     *
+     * @param restored Artifacts returned by {@link #restore}
+     */
+    public void discardRestored(Collection<Artifact> restored) {
+        Path root = snapshotsDir.toPath().toAbsolutePath().normalize();
+        Set<Path> restoreDirs = new HashSet<>();
+        for (Artifact artifact : restored) {
+            Path path = artifact.getFile().toPath().toAbsolutePath().normalize();
+            if (!path.startsWith(root) || path.getNameCount() <= root.getNameCount()) continue;
+            Path dir = root.resolve(path.getName(root.getNameCount()));
+            if (dir.getFileName().toString().startsWith(RESTORE_DIR)) restoreDirs.add(dir);
+        }
+        for (Path dir : restoreDirs) {
+            try {
+                FileUtils.deleteRecursively(dir);
+            } catch (IOException e) {
+                log.warn("Failed to delete restored files in {}", dir, e);
+            }
+        }
+    }
+
+    /**
+     * Delete restore and collect directories left behind by an earlier run.
+     */
+    private void discardStaleWorkDirs() {
+        File[] stale = snapshotsDir.listFiles((dir, name) -> name.startsWith(RESTORE_DIR) || name.startsWith(COLLECT_DIR));
+        if (stale == null) return;
+        for (File dir : stale) {
+            try {
+                FileUtils.deleteRecursively(dir.toPath());
+            } catch (IOException e) {
+                log.warn("Failed to delete stale directory {}", dir, e);
+            }
+        }
+    }
+
+    /**
+     * Restore a snapshot taken before manifests were introduced, its files are deployed straight from the snapshot directory.
+     */
+    private List<Artifact> restoreLegacy(SnapshotManifest manifest, File snapshotDir, Predicate<SnapshotManifest.Entry> filter) {
+        List<Artifact> restoredArtifacts = new ArrayList<>();
+        for (SnapshotManifest.Entry entry : manifest.getEntries()) {
+            if (!filter.test(entry)) continue;
+            File file = new File(snapshotDir, entry.getFileName());
+            if (!file.exists()) continue;
+            restoredArtifacts.add(Artifact.builder()
+                    .name(entry.getName())
+                    .file(file)
+                    .repo(entry.getRepo())
+                    .build());
+        }
+        log.info("Restored {} artifacts from legacy snapshot {}", restoredArtifacts.size(), manifest.getId());
+        return restoredArtifacts;
+    }
+
+    /**
+     * Pin or unpin a snapshot. Pinned snapshots are never deleted by retention.
+     *
+     * @return Whether the snapshot exists
+     */
+    public boolean pin(String snapshotId, boolean pinned) {
+        SnapshotManifest manifest = index.update(snapshotId, changed -> {
+            changed.setPinned(pinned);
+            if (changed.isLegacy()) return;
+            try {
+                JsonUtils.toJson(new File(new File(snapshotsDir, snapshotId), SnapshotManifest.FILE_NAME), changed);
+            } catch (Exception e) {
+                log.error("Failed to update manifest of snapshot {}", snapshotId, e);
+            }
+        });
+        return manifest != null;
+    }
+
+    /**
+     * Run retention in the background soon, once for any number of requests made before it starts.
+     */
+    private void requestRetention() {
+        if (retentionQueued.compareAndSet(false, true)) {
+            retention.execute(() -> {
+                retentionQueued.set(false);
+                cleanOldSnapshots();
+            });
         }
     }
 
     /**
-     * Delete old snapshots exceeding maxSnapshots or older than keepDays.
+     * Delete snapshots exceeding maxSnapshots, older than keepDays or beyond the maxTotalBytes quota,
+     * then drop every object no remaining snapshot references.
+     * Which snapshots go is planned in a single pass from newest to oldest. Pinned snapshots are always kept
+     * and their objects count towards the quota first; the newest snapshot is kept even if it alone exceeds it.
+     * Unreferenced objects are only moved aside under the objects lock and deleted once it is released.
      */
     private void cleanOldSnapshots() {
         try {
             if (!snapshotsDir.exists()) return;
-
-            List<Path> snapshotDirs = Files.list(snapshotsDir.toPath())
-                    .filter(Files::isDirectory)
-                    .sorted(Comparator.comparing(Path::getFileName).reversed())
-                    .toList();
-
-            // Keep only max_snapshots
-            if (snapshotDirs.size() > config.getMaxSnapshots()) {
-                for (Path oldDir : snapshotDirs.subList(config.getMaxSnapshots(), snapshotDirs.size())) {
-                    deleteDirectoryRecursively(oldDir);
-                    log.info("Deleted old snapshot {}", oldDir);
-                }
+            // Snapshots pinned since the plan was made are kept
+            List<String> removed = index.removeUnpinned(planRetention(index.list()));
+            for (String snapshotId : removed) {
+                FileUtils.deleteRecursively(snapshotsDir.toPath().resolve(snapshotId));
             }
+            if (!removed.isEmpty())
+                log.info("Deleted {} old snapshots: {}", removed.size(), removed);
 
-            // Remove snapshots older than keep_days
-            LocalDateTime cutoff = LocalDateTime.now().minusDays(config.getKeepDays());
-            for (Path dir : snapshotDirs) {
-                String name = dir.getFileName().toString();
-                try {
-                    LocalDateTime snapshotTime = LocalDateTime.parse(name, DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-                    if (snapshotTime.isBefore(cutoff)) {
-                        deleteDirectoryRecursively(dir);
-                        log.info("Deleted old snapshot due to age: {}", dir);
+            Path trash = Files.createTempDirectory(snapshotsDir.toPath(), COLLECT_DIR + "-");
+            int collected;
+            objectsLock.writeLock().lock();
+            try {
+                // Everything indexed by now, including snapshots created while deleting
+                Set<String> references = new HashSet<>();
+                for (SnapshotManifest manifest : index.list()) {
+                    for (SnapshotManifest.Entry entry : manifest.getEntries()) {
+                        if (entry.getDigest() != null) references.add(entry.getDigest());
                     }
-                } catch (Exception ignored) {
                 }
+                collected = blobStore.collect(references, trash);
+            } finally {
+                objectsLock.writeLock().unlock();
             }
-
-        } catch (IOException e) {
+            // Deleting is the slow part, snapshots and restores waiting for the lock must not pay for it
+            FileUtils.deleteRecursively(trash);
+            if (collected > 0)
+                log.info("Deleted {} unreferenced snapshot objects", collected);
+        } catch (Exception e) {
             log.error("Failed to cleanup old snapshots", e);
         }
     }
 
-    private void deleteDirectoryRecursively(Path path) throws IOException {
-        if (Files.isDirectory(path)) {
-            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
-                for (Path entry : entries) {
-                    deleteDirectoryRecursively(entry);
+    /**
+     * @param snapshots Snapshots, newest first
+     * @return IDs of the snapshots to delete
+     */
+    private List<String> planRetention(List<SnapshotManifest> snapshots) {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(config.getKeepDays());
+        Set<String> counted = new HashSet<>();
+        long bytes = 0;
+        for (SnapshotManifest manifest : snapshots) {
+            if (manifest.isPinned()) bytes += newBytes(manifest, counted);
+        }
+        List<String> plan = new ArrayList<>();
+        int kept = 0;
+        for (SnapshotManifest manifest : snapshots) {
+            if (manifest.isPinned()) continue;
+            // Empty snapshots (nothing was backed up) are never worth keeping
+            if (manifest.getEntries().isEmpty() || kept >= config.getMaxSnapshots() || isOlderThan(manifest.getId(), cutoff)) {
+                plan.add(manifest.getId());
+                continue;
+            }
+            Set<String> added = new HashSet<>(counted);
+            long size = newBytes(manifest, added);
+            if (config.getMaxTotalBytes() > 0 && kept > 0 && bytes + size > config.getMaxTotalBytes()) {
+                plan.add(manifest.getId());
+                continue;
+            }
+            counted = added;
+            bytes += size;
+            kept++;
+        }
+        return plan;
+    }
+
+    /**
+     * Stored size of the objects of a snapshot not counted yet, adding them to the counted digests.
+     */
+    private long newBytes(SnapshotManifest manifest, Set<String> counted) {
+        long bytes = 0;
+        for (SnapshotManifest.Entry entry : manifest.getEntries()) {
+            if (entry.getDigest() == null) {
+                bytes += entry.getSize();
+            } else if (counted.add(entry.getDigest())) {
+                try {
+                    bytes += Files.size(blobStore.resolve(entry.getDigest()));
+                } catch (IOException e) {
+                    // Missing object, takes no space
                 }
             }
         }
-        Files.deleteIfExists(path);
+        return bytes;
     }
 
-    /*
-     * Backup a single artifact file (used in DeploymentManager)
-    public void snapshotFile(Path file) {
-        createSnapshot(
-                Collections.singletonList(Artifact.builder().name(file.getFileName().toString()).file(file.toFile()).build()),
-                "Deployment overwrite"
-        );
+    private boolean isOlderThan(String snapshotId, LocalDateTime cutoff) {
+        try {
+            return parseTimestamp(snapshotId).isBefore(cutoff);
+        } catch (Exception ignored) {
+            return false;
+        }
+    }
+
+    public void close() {
+        retention.shutdownNow();
     }
-     */
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package net.rolandbrt.patchsync.snapshot;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class SnapshotManifest {
+    public static final String FILE_NAME = "manifest.json";
+
+    private String id;
+    private String reason;
+    /**
+     * Snapshot taken before manifests existed, its files are stored in the snapshot directory as name_repo.ext.
+     */
+    private boolean legacy;
+    /**
+     * Pinned snapshots are never deleted by retention.
+     */
+    private boolean pinned;
+    /**
+     * Entries are target files replaced by the deploy, restored to their recorded target paths.
+     * Older snapshots hold the deployed artifacts instead.
+     */
+    private boolean targetFiles;
+    private List<Entry> entries = new ArrayList<>();
+
+    @Data
+    public static class Entry {
+        private String name, repo, branch, version, fileName, digest;
+        private long size;
+        /**
+         * Paths the artifact was deployed to when the snapshot was taken, holding this content for target file snapshots.
+         */
+        private List<String> targets = new ArrayList<>();
+    }
+}
\ No newline at end of file
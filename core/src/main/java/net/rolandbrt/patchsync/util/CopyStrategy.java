@@ -0,0 +1,15 @@
+package net.rolandbrt.patchsync.util;
+
+/**
+ * How {@link FileUtils#copy(java.nio.file.Path, java.nio.file.Path)} materialized a file.
+ */
+public enum CopyStrategy {
+    /**
+     * Source and target share the same data blocks, nothing was copied. Only used when requested.
+     */
+    HARD_LINK,
+    /**
+     * Bytes were transferred channel to channel, the default.
+     */
+    TRANSFER
+}
\ No newline at end of file
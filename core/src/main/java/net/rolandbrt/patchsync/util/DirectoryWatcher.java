@@ -0,0 +1,84 @@
+package net.rolandbrt.patchsync.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a directory and runs a task once changes to matching files settled,
+ * so a file still being written is not picked up half done.
+ */
+@Slf4j
+public class DirectoryWatcher {
+    private final String name;
+    private final Predicate<Path> filter;
+    private final long delayMillis;
+    private final Runnable onChange;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /**
+     * @param dir         Directory to watch
+     * @param filter      Selects the relevant file names, relative to the directory
+     * @param delayMillis Time without further events before the task runs
+     * @param name        Name of the watcher thread
+     * @param onChange    Task run on the watcher thread after matching changes settled
+     */
+    public DirectoryWatcher(Path dir, Predicate<Path> filter, long delayMillis, String name, Runnable onChange) throws IOException {
+        this.name = name;
+        this.filter = filter;
+        this.delayMillis = Math.max(0, delayMillis);
+        this.onChange = onChange;
+        this.watchService = dir.getFileSystem().newWatchService();
+        dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                if (!isMatchingChange(watchService.take())) continue;
+                // Wait until no event was received for the delay
+                WatchKey key;
+                while ((key = watchService.poll(delayMillis, TimeUnit.MILLISECONDS)) != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                try {
+                    onChange.run();
+                } catch (Exception e) {
+                    log.error("Watcher [{}] failed to handle a change", name, e);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private boolean isMatchingChange(WatchKey key) {
+        boolean matching = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || filter.test((Path) event.context())) {
+                matching = true;
+            }
+        }
+        key.reset();
+        return matching;
+    }
+
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Failed to close watcher [{}]", name, e);
+        }
+        thread.interrupt();
+    }
+}
\ No newline at end of file
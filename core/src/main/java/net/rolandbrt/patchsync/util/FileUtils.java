@@ -1,19 +1,172 @@
 package net.rolandbrt.patchsync.util;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.stream.Stream;
 
 public class FileUtils {
     public static final Path APP_ROOT = Paths.get(System.getProperty("user.dir")).toAbsolutePath().normalize();
+    private static final int BUFFER_SIZE = 64 * 1024;
 
-    public static void copy(Path source, Path target) throws IOException {
-        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * Copy a file, replacing the target if it exists.
+     * The file is staged next to the target and renamed over it, see {@link #stage(Path, Path)}.
+     * The target is always replaced as a new file, so existing links to it are never written through.
+     *
+     * @param source File to copy
+     * @param target Destination file
+     * @return Strategy that was used
+     */
+    public static CopyStrategy copy(Path source, Path target) throws IOException {
+        return copy(source, target, false);
+    }
+
+    /**
+     * Copy a file, replacing the target if it exists, see {@link #copy(Path, Path)}.
+     *
+     * @param source   File to copy
+     * @param target   Destination file
+     * @param hardLink Whether to hard link instead of copying when possible, see {@link #stage(Path, Path, boolean)}
+     * @return Strategy that was used
+     */
+    public static CopyStrategy copy(Path source, Path target, boolean hardLink) throws IOException {
+        Path staged = createStagingFile(target);
+        try {
+            CopyStrategy strategy = stage(source, staged, hardLink);
+            commit(staged, target);
+            return strategy;
+        } catch (IOException e) {
+            Files.deleteIfExists(staged);
+            throw e;
+        }
+    }
+
+    /**
+     * Create an empty temporary file next to the target, on the same file system so it can be renamed over it.
+     * Every call gets a file of its own, concurrent writers of the same target never share one.
+     */
+    public static Path createStagingFile(Path target) throws IOException {
+        return Files.createTempFile(target.toAbsolutePath().getParent(), "." + target.getFileName() + ".", ".staged");
+    }
+
+    /**
+     * Write the content of a file to a new staged file with a channel transfer, flushed to disk.
+     *
+     * @param source File to copy
+     * @param staged Staged file, replaced if it exists
+     * @return Strategy that was used
+     */
+    public static CopyStrategy stage(Path source, Path staged) throws IOException {
+        return stage(source, staged, false);
+    }
+
+    /**
+     * Write the content of a file to a new staged file, see {@link #stage(Path, Path)}.
+     * With {@code hardLink} a hard link is tried first, falling back to a transfer when the staged file lives on
+     * another file system. A hard link shares the data with the source, so it is only safe when neither side is
+     * ever modified in place: a write to one shows up in the other and keeps the modification time in sync.
+     *
+     * @param source   File to copy
+     * @param staged   Staged file, replaced if it exists
+     * @param hardLink Whether to hard link when possible
+     * @return Strategy that was used
+     */
+    public static CopyStrategy stage(Path source, Path staged, boolean hardLink) throws IOException {
+        Files.deleteIfExists(staged);
+        if (hardLink) {
+            try {
+                Files.createLink(staged, source);
+                return CopyStrategy.HARD_LINK;
+            } catch (IOException | UnsupportedOperationException | SecurityException e) {
+                // Cross-device, unsupported file system or missing permission
+            }
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(staged, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            long size = in.size(), position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(true);
+        }
+        return CopyStrategy.TRANSFER;
+    }
+
+    /**
+     * Atomically rename a staged file over its target.
+     */
+    public static void commit(Path staged, Path target) throws IOException {
+        try {
+            Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
     public static void delete(Path path) throws IOException {
         Files.deleteIfExists(path);
     }
 
+    /**
+     * Delete a directory with everything below it, deepest entries first.
+     */
+    public static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Compute the SHA-256 digest of a file, streaming its content.
+     *
+     * @param path File to hash
+     * @return Lowercase hex encoded digest
+     */
+    public static String digest(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Compute the SHA-256 digest of a file once per cache, see {@link #digest(Path)}.
+     *
+     * @param path    File to hash
+     * @param digests Digests computed so far, by path
+     * @return Lowercase hex encoded digest
+     */
+    public static String digest(Path path, Map<Path, String> digests) throws IOException {
+        // Racing callers may hash the same file twice, which is cheaper than serializing them
+        String digest = digests.get(path);
+        if (digest == null) {
+            digest = digest(path);
+            digests.put(path, digest);
+        }
+        return digest;
+    }
+
     public static Path resolveSafe(Path relative) {
         Path resolved = APP_ROOT.resolve(relative).normalize();
         if (!resolved.startsWith(APP_ROOT)) {
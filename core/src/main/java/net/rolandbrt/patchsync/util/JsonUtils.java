@@ -11,6 +11,11 @@ public class JsonUtils {
     public static String toJson(Object object) throws Exception {
         return MAPPER.writeValueAsString(object);
     }
+
+    public static void toJson(File file, Object object) throws Exception {
+        MAPPER.writeValue(file, object);
+    }
+
     public static <T> T fromJson(String message, Class<T> clazz) throws Exception {
         return MAPPER.readValue(message, clazz);
     }
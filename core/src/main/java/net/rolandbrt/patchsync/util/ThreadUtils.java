@@ -0,0 +1,43 @@
+package net.rolandbrt.patchsync.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ThreadUtils {
+
+    /**
+     * Thread factory producing named daemon threads.
+     *
+     * @param prefix Thread name prefix, a counter is appended
+     */
+    public static ThreadFactory named(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Create an executor for blocking I/O tasks.
+     * Uses a virtual thread per task when requested and supported by the running JDK (21+),
+     * otherwise a fixed pool of platform threads. Callers bound concurrency themselves when using virtual threads.
+     *
+     * @param threads Pool size for the platform thread fallback
+     * @param virtual Whether virtual threads should be used when available
+     * @param prefix  Platform thread name prefix
+     */
+    public static ExecutorService newIoExecutor(int threads, boolean virtual, String prefix) {
+        if (virtual) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException ignored) {
+                // Running on a JDK without virtual threads
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(1, threads), named(prefix));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,57 @@
+package net.rolandbrt.patchsync.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LaneSchedulerTest {
+    private static final int LANES = 64;
+    private final LaneScheduler lanes = new LaneScheduler(Executors.newFixedThreadPool(4));
+    private final ExecutorService callers = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+        lanes.close();
+    }
+
+    @Test
+    void batchesSharingLanesInOppositeOrderNeverWaitOnEachOther() throws Exception {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < LANES; i++) keys.add("repo-" + i);
+        List<String> reversed = new ArrayList<>(keys);
+        Collections.reverse(reversed);
+        for (int round = 0; round < 50; round++) {
+            // Like a manual check and a webhook batch: each holds its lanes until all of its own tasks finished
+            CyclicBarrier start = new CyclicBarrier(2);
+            Future<?> check = callers.submit(() -> runBatch(keys, start));
+            Future<?> batch = callers.submit(() -> runBatch(reversed, start));
+            check.get(10, TimeUnit.SECONDS);
+            batch.get(10, TimeUnit.SECONDS);
+        }
+        lanes.getQueueDepths().values().forEach(depth -> assertEquals(0, depth));
+    }
+
+    private Void runBatch(List<String> keys, CyclicBarrier start) throws Exception {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Map<String, Callable<String>> tasks = new LinkedHashMap<>();
+        for (String key : keys) tasks.put(key, () -> key);
+        start.await();
+        try {
+            for (CompletableFuture<String> result : lanes.submitAll(tasks, done).values()) {
+                result.join();
+            }
+        } finally {
+            done.complete(null);
+        }
+        return null;
+    }
+}
\ No newline at end of file
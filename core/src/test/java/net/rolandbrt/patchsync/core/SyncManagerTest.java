@@ -0,0 +1,115 @@
+package net.rolandbrt.patchsync.core;
+
+import net.rolandbrt.patchsync.configuration.AppConfig;
+import net.rolandbrt.patchsync.configuration.ArtifactRepoConfig;
+import net.rolandbrt.patchsync.configuration.GithubConfig;
+import net.rolandbrt.patchsync.configuration.SnapshotConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncManagerTest {
+    private static final String TOKEN = "test-token";
+    private final File journal = new File("inbox.journal");
+    private SyncManager syncManager;
+    private int port;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        journal.delete();
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        GithubConfig github = new GithubConfig();
+        github.setPort(port);
+        github.setEndpoint("github-update");
+        github.setToken(TOKEN);
+        github.setMetricsEndpoint("metrics");
+        // Unreachable remotes, every clone fails at once without touching the network
+        ArtifactRepoConfig repo = new ArtifactRepoConfig();
+        repo.setRepo("file:///nonexistent/main");
+        ArtifactRepoConfig second = new ArtifactRepoConfig();
+        second.setRepo("file:///nonexistent/second");
+        AppConfig config = new AppConfig();
+        config.setRepositories(Map.of("MainRepo", repo, "SecondRepo", second));
+        config.getSync().setDebounceMillis(1);
+        config.getSync().setMaxDebounceMillis(5);
+        config.setTargets(Map.of());
+        config.setSnapshot(new SnapshotConfig());
+        config.setGithubConfig(github);
+        syncManager = new SyncManager();
+        syncManager.init(config);
+    }
+
+    @AfterEach
+    void tearDown() {
+        syncManager.close();
+    }
+
+    @Test
+    void rejectsNotificationWithoutRepoBeforeJournaling() throws Exception {
+        assertEquals(400, post("{}"));
+        assertEquals(0, journal.length());
+    }
+
+    @Test
+    void rejectsNotificationForUnknownRepoBeforeJournaling() throws Exception {
+        assertEquals(400, post("{\"repoName\":\"OtherRepo\"}"));
+        assertEquals(0, journal.length());
+    }
+
+    @Test
+    void metricsRequireToken() throws Exception {
+        assertEquals(403, getMetrics(null));
+        assertEquals(200, getMetrics("Bearer " + TOKEN));
+    }
+
+    @Test
+    void manualCheckAndWebhookBatchNeverWaitOnEachOther() throws Exception {
+        ExecutorService cli = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 20; i++) {
+                Future<?> check = cli.submit(syncManager::checkAll);
+                assertEquals(200, post("{\"repoName\":\"SecondRepo\"}"));
+                assertEquals(200, post("{\"repoName\":\"MainRepo\"}"));
+                check.get(30, TimeUnit.SECONDS);
+            }
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (syncManager.getQueueDepths().values().stream().anyMatch(depth -> depth > 0)) {
+                assertTrue(System.currentTimeMillis() < deadline, "Lanes still held: " + syncManager.getQueueDepths());
+                Thread.sleep(10);
+            }
+        } finally {
+            cli.shutdownNow();
+        }
+    }
+
+    private int getMetrics(String authorization) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/metrics")).GET();
+        if (authorization != null) request.header("Authorization", authorization);
+        return HttpClient.newHttpClient().send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private int post(String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/github-update"))
+                .header("X-Auth-Token", TOKEN)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+package net.rolandbrt.patchsync.core;
+
+import net.rolandbrt.patchsync.network.UpdateMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UpdateInboxTest {
+    private final File journal = new File("inbox-test.journal");
+
+    @BeforeEach
+    void setUp() {
+        journal.delete();
+    }
+
+    @AfterEach
+    void tearDown() {
+        journal.delete();
+    }
+
+    @Test
+    void compactsJournalWhileNotificationsStayPending() throws Exception {
+        UpdateInbox inbox = new UpdateInbox(journal, 100, 4);
+        inbox.open();
+        UpdateMessage waiting = message("Waiting");
+        inbox.offer(waiting);
+        for (int i = 0; i < 10; i++) {
+            UpdateMessage message = message("Repo" + i);
+            inbox.offer(message);
+            inbox.ack(List.of(message));
+        }
+        inbox.close();
+        // Only the pending notification and the records since the last compaction are left
+        assertEquals(5, Files.readAllLines(journal.toPath()).size());
+
+        UpdateInbox reopened = new UpdateInbox(journal, 100, 4);
+        List<UpdateMessage> replayed = reopened.open();
+        reopened.close();
+        assertEquals(1, replayed.size());
+        assertEquals("Waiting", replayed.get(0).getRepoName());
+        assertEquals(1, Files.readAllLines(journal.toPath()).size());
+    }
+
+    private static UpdateMessage message(String repoName) {
+        UpdateMessage message = new UpdateMessage();
+        message.setRepoName(repoName);
+        return message;
+    }
+}
\ No newline at end of file
@@ -2,3 +2,4 @@ rootProject.name = "PatchSync"
 include("api", "core")
 include("example-plugin")
 include("PluginExample")
+include("benchmarks")